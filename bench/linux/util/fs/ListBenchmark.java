@@ -0,0 +1,131 @@
+package linux.util.fs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of whole listings of generated trees, the output discarded: enumeration alone,
+ * then listings in short and long formats, sorted or not, recursively.
+ * <p> Throughput is in listings per second; run with <code>-prof gc</code> for the allocation rate.
+ * Larger trees are given with <code>-p entries=1000000</code>.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListBenchmark {
+    @Param({ "flat", "deep", "symlinks", "mixed" })
+    public String kind;
+
+    @Param({ "10000" })
+    public int entries;
+
+    private Path root;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("ls-bench-");
+        new TreeGenerator(TreeGenerator.DEFAULT_SEED).generate(kind, root, entries);
+        /* List renders to the standard output as set when it is created */
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        TreeGenerator.delete(root);
+    }
+
+    /**
+     * @return New listing of the tree, with hidden files and recursively.
+     * */
+    private List newList(final char sortBy, final boolean displayInLongFormat) {
+        return new List(sortBy, true, true, displayInLongFormat, false, true, Collections.singletonList(root));
+    }
+
+    /**
+     * Reading the directories alone, as a baseline.
+     * @return Number of entries.
+     * */
+    @Benchmark
+    public long enumerate() throws IOException {
+        long count = 0L;
+        final ArrayDeque<Path> pending = new ArrayDeque<>();
+        pending.push(root);
+        while(!pending.isEmpty()) {
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(pending.pop())) {
+                for(Path entry : stream) {
+                    count++;
+                    if(Files.isDirectory(entry, java.nio.file.LinkOption.NOFOLLOW_LINKS))
+                        pending.push(entry);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Names only, not sorted: enumeration and rendering.
+     * */
+    @Benchmark
+    public List listShortUnsorted() throws Exception {
+        final List list = newList('u', false);
+        list.showList();
+        return list;
+    }
+
+    /**
+     * Names only, sorted by name.
+     * */
+    @Benchmark
+    public List listShort() throws Exception {
+        final List list = newList('n', false);
+        list.showList();
+        return list;
+    }
+
+    /**
+     * Long format, not sorted: attribute loading and rendering.
+     * */
+    @Benchmark
+    public List listLongUnsorted() throws Exception {
+        final List list = newList('u', true);
+        list.showList();
+        return list;
+    }
+
+    /**
+     * Long format, sorted by name.
+     * */
+    @Benchmark
+    public List listLong() throws Exception {
+        final List list = newList('n', true);
+        list.showList();
+        return list;
+    }
+}
@@ -0,0 +1,89 @@
+package linux.util.fs;
+
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of rendering the lines of a directory of generated entries into a reused buffer, in short
+ * and long formats, without any filesystem access. Lines are rendered by the listing itself, through
+ * {@link List#renderEntry(EntryStore, int, OutputRenderer, String)}.
+ * <p> Throughput is in directories rendered per second; run with <code>-prof gc</code> for the allocation rate,
+ * which should stay near zero.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({ "10000" })
+    public int entries;
+
+    @Param({ "false", "true" })
+    public boolean human;
+
+    private EntryStore store;
+    private OutputRenderer renderer;
+    /* Listings rendering in short and long format */
+    private List shortList, longList;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(TreeGenerator.DEFAULT_SEED);
+        store = new EntryStore(entries, true, true, true, false, true, true);
+        final StringBuilder name = new StringBuilder(24);
+        for(int i = 0; i < entries; i++) {
+            name.setLength(0);
+            for(int n = 4 + random.nextInt(12); n > 0; n--)
+                name.append((char)('a' + random.nextInt(26)));
+            store.add(name.append('-').append(i).toString(),
+                      (byte)(EntryStore.TYPE_DIRECTORY + random.nextInt(3)),
+                      (long)Math.pow(2, random.nextDouble() * 32),
+                      1_600_000_000_000L - (long)(random.nextDouble() * 315_360_000_000L),
+                      0,
+                      random.nextInt(8),
+                      (random.nextInt(4) == 0 ? "root" : "user" + random.nextInt(4)));
+        }
+        renderer = new OutputRenderer();
+        final java.util.List<java.nio.file.Path> files = java.util.List.of(Paths.get("."));
+        shortList = new List('n', true, false, false, human, false, files);
+        longList  = new List('n', true, false, true,  human, false, files);
+    }
+
+    /**
+     * @return Number of bytes rendered.
+     * */
+    @Benchmark
+    public int renderShort() {
+        renderer.reset();
+        for(int i = 0; i < entries; i++)
+            shortList.renderEntry(store, i, renderer, null);
+        return renderer.size();
+    }
+
+    /**
+     * @return Number of bytes rendered.
+     * */
+    @Benchmark
+    public int renderLong() {
+        renderer.reset();
+        for(int i = 0; i < entries; i++)
+            longList.renderEntry(store, i, renderer, null);
+        return renderer.size();
+    }
+}
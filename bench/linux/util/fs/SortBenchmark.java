@@ -0,0 +1,66 @@
+package linux.util.fs;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of sorting the entries of one directory in memory, by each sort attribute, without
+ * any filesystem access: the entry store is filled with generated attributes, the same for every run.
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortBenchmark {
+    @Param({ "n", "s", "m", "t" })
+    public char sortBy;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int entries;
+
+    @Param({ "true", "false" })
+    public boolean sortInAsc;
+
+    private EntryStore store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(TreeGenerator.DEFAULT_SEED);
+        store = new EntryStore(entries, true, true, true, true, false, false);
+        final StringBuilder name = new StringBuilder(24);
+        for(int i = 0; i < entries; i++) {
+            name.setLength(0);
+            for(int n = 4 + random.nextInt(12); n > 0; n--)
+                name.append((char)('a' + random.nextInt(26)));
+            store.add(name.append('-').append(i).toString(),
+                      (byte)(EntryStore.TYPE_DIRECTORY + random.nextInt(3)),
+                      (long)Math.pow(2, random.nextDouble() * 32),
+                      1_600_000_000_000L - (long)(random.nextDouble() * 315_360_000_000L),
+                      random.nextInt(1_000_000),
+                      0, null);
+        }
+    }
+
+    /**
+     * @return Indices of the entries in sorted order.
+     * */
+    @Benchmark
+    public int[] sort() {
+        return store.sort(sortBy, sortInAsc);
+    }
+}
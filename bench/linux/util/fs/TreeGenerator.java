@@ -0,0 +1,157 @@
+package linux.util.fs;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Generates reproducible directory trees for the benchmarks: the same kind, size and seed always
+ * give the same names, sizes, modification times and links.
+ * <p> Kinds:
+ * <p> - flat = one directory with all the entries
+ * <p> - deep = directories nested level after level, a few entries each of which two subdirectories: the
+ * depth grows with the logarithm of the number of entries, so that paths stay far below the system limit
+ * <p> - symlinks = one directory with mostly symbolic links, some of them broken
+ * <p> - mixed = one directory with files of sizes from bytes to gigabytes, and some directories
+ * <p> File contents are sparse: sizes take no disk space.
+ * */
+public final class TreeGenerator {
+    public static final long DEFAULT_SEED = 42L;
+
+    /* Modification times are spread over ten years before this one, same for every run */
+    private static final long MTIME_BASE = 1_600_000_000_000L;
+    private static final long MTIME_SPREAD = 10L * 365 * 24 * 3600 * 1000;
+    /** Entries per directory of a deep tree */
+    private static final int DEEP_FAN_OUT = 8;
+    /** Subdirectories among the entries of each directory of a deep tree */
+    private static final int DEEP_SUBDIRECTORIES = 2;
+
+    private final Random random;
+
+    public TreeGenerator(final long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generates a tree into an empty or missing directory.
+     * @param kind flat, deep, symlinks or mixed.
+     * @param entries Total number of entries.
+     * @throws IllegalArgumentException If the kind is not valid.
+     * */
+    public void generate(final String kind, final Path root, final int entries) throws IOException, IllegalArgumentException {
+        Files.createDirectories(root);
+        switch(kind) {
+            case "flat":     generateFlat(root, entries);     break;
+            case "deep":     generateDeep(root, entries);     break;
+            case "symlinks": generateSymlinks(root, entries); break;
+            case "mixed":    generateMixed(root, entries);    break;
+            default: throw new IllegalArgumentException("Invalid tree kind: " + kind);
+        }
+    }
+
+    private void generateFlat(final Path dir, final int entries) throws IOException {
+        for(int i = 0; i < entries; i++)
+            createFile(dir.resolve(nextName(i)), random.nextInt(64 * 1024));
+    }
+
+    private void generateDeep(final Path root, final int entries) throws IOException {
+        /* Filled breadth first: each level is complete before the next one is started */
+        final ArrayDeque<Path> dirs = new ArrayDeque<>();
+        dirs.add(root);
+        for(int i = 0; i < entries; ) {
+            final Path dir = dirs.poll();
+            for(int n = 0; n < DEEP_FAN_OUT && i < entries; n++, i++) {
+                if(n >= DEEP_FAN_OUT - DEEP_SUBDIRECTORIES) {
+                    /* Last entries of each directory are directories of the next level */
+                    final Path subdir = dir.resolve(nextName(i));
+                    Files.createDirectory(subdir);
+                    setMTime(subdir);
+                    dirs.add(subdir);
+                } else {
+                    createFile(dir.resolve(nextName(i)), random.nextInt(4096));
+                }
+            }
+        }
+    }
+
+    private void generateSymlinks(final Path dir, final int entries) throws IOException {
+        final int targets = Math.max(1, entries / 10);
+        for(int i = 0; i < targets; i++)
+            createFile(dir.resolve("target-" + i), random.nextInt(4096));
+        for(int i = targets; i < entries; i++) {
+            /* One link in twenty is broken */
+            final String target = (random.nextInt(20) == 0 ? "missing-" + i : "target-" + random.nextInt(targets));
+            Files.createSymbolicLink(dir.resolve(nextName(i)), Paths.get(target));
+        }
+    }
+
+    private void generateMixed(final Path dir, final int entries) throws IOException {
+        for(int i = 0; i < entries; i++) {
+            final Path file = dir.resolve(nextName(i));
+            if(random.nextInt(50) == 0) {
+                Files.createDirectory(file);
+                setMTime(file);
+            } else {
+                /* Sizes evenly spread over orders of magnitude, from bytes to 4 GB */
+                createFile(file, (long)Math.pow(2, random.nextDouble() * 32));
+            }
+        }
+    }
+
+    /**
+     * @return Name of the entry i: random letters, made unique by the index, some of them hidden.
+     * */
+    private String nextName(final int i) {
+        final StringBuilder name = new StringBuilder(24);
+        if(random.nextInt(20) == 0)
+            name.append('.');
+        for(int n = 4 + random.nextInt(12); n > 0; n--)
+            name.append((char)('a' + random.nextInt(26)));
+        return name.append('-').append(i).toString();
+    }
+
+    private void createFile(final Path file, final long size) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size);
+        }
+        setMTime(file);
+    }
+
+    private void setMTime(final Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(MTIME_BASE - (long)(random.nextDouble() * MTIME_SPREAD)));
+    }
+
+    /**
+     * Deletes a generated tree.
+     * */
+    public static void delete(final Path root) throws IOException {
+        if(Files.notExists(root, java.nio.file.LinkOption.NOFOLLOW_LINKS))
+            return;
+        try(java.util.stream.Stream<Path> files = Files.walk(root)) {
+            for(Path file : (Iterable<Path>)files.sorted(java.util.Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    /**
+     * Usage: TreeGenerator kind directory entries [seed]
+     * */
+    public static void main(final String[] args) throws IOException {
+        if(args.length < 3 || args.length > 4) {
+            System.err.println("Usage: TreeGenerator flat|deep|symlinks|mixed <directory> <entries> [<seed>]");
+            System.exit(1);
+        }
+        try {
+            final long seed = (args.length == 4 ? Long.parseLong(args[3]) : DEFAULT_SEED);
+            new TreeGenerator(seed).generate(args[0], Paths.get(args[1]), Integer.parseInt(args[2]));
+        } catch(IllegalArgumentException e) {
+            System.err.printf("Error: Invalid argument: %s %n", e.getMessage());
+            System.exit(1);
+        }
+    }
+}
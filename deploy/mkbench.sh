@@ -0,0 +1,15 @@
+#!/bin/bash
+# Builds the benchmarks into artifacts/benchmarks.jar, runnable on its own.
+# JMH_CP: class path of the JMH jars (jmh-core, jmh-generator-annprocess, jopt-simple, commons-math3), e.g.
+#   JMH_CP=$(echo ~/lib/jmh/*.jar | tr ' ' ':') deploy/mkbench.sh
+# Run:  java -jar artifacts/benchmarks.jar [ListBenchmark|SortBenchmark|RenderBenchmark] [-prof gc] [-p entries=1000000]
+# Tree: java -cp artifacts/benchmarks.jar linux.util.fs.TreeGenerator flat|deep|symlinks|mixed <directory> <entries> [<seed>]
+set -e
+if [ -z "$JMH_CP" ]; then
+    echo "Error: JMH_CP not set to the class path of the JMH jars" >&2
+    exit 1
+fi
+rm -rf out-bench && mkdir out-bench
+javac -cp "$JMH_CP" -d out-bench $(find src bench -name '*.java')
+(cd out-bench && for jar in $(echo "$JMH_CP" | tr ':' ' '); do jar -xf "$jar"; done && rm -rf META-INF/MANIFEST.MF)
+jar -cfe artifacts/benchmarks.jar org.openjdk.jmh.Main -C out-bench .
@@ -0,0 +1,185 @@
+package linux.util.fs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Recursive sizes of directories, same as <code>du --apparent-size --bytes</code>: the sizes of all the
+ * entries below a directory and of the directory itself, symbolic links not followed.
+ * <p> The subdirectories of each directory are walked concurrently on a fork-join pool. A file with
+ * several hard links is counted once per directory asked for, in the first subdirectory it is found in;
+ * directories and entries which cannot be read are left out.
+ * <p> The totals of the directories walked are kept, so that a directory asked for again (e.g. when
+ * listed recursively, after its parent) is not walked again; only those of the directories asked for
+ * and of their subdirectories are kept unless all are retained. A total is forgotten once taken, i.e.
+ * once its directory is listed: when retaining all, those held are then at most the totals of the
+ * directories walked and not listed yet. A total where files with several hard
+ * links were found depends on where else they are, it is kept only for the directory asked for and not
+ * reused within the walk of another.
+ * <p> Thread safe.
+ * */
+final class DirectorySizes implements AutoCloseable {
+    /** Attributes read in one call from the unix view, the link count telling which files may be counted twice */
+    private static final String UNIX_ATTRIBUTES = "unix:size,nlink,isDirectory,fileKey";
+
+    /**
+     * Recursive size of a directory.
+     * */
+    static final class Total {
+        /** Size in bytes of the directory and all the entries below it */
+        final long size;
+        /** Number of entries below the directory, other than directories */
+        final long files;
+        /** Whether files with several hard links were found, counted or not */
+        final boolean linked;
+
+        Total(final long size, final long files, final boolean linked) {
+            this.size   = size;
+            this.files  = files;
+            this.linked = linked;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final boolean retainAll;
+    private final LongAdder statCallCount;
+    private final ConcurrentHashMap<Path, Total> totals = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallelism Number of directories walked concurrently.
+     * @param retainAll Whether the totals of all the directories walked are kept, not only those asked for
+     * and of their subdirectories.
+     * @param statCallCount Counter of the filesystem calls made to read attributes.
+     * */
+    DirectorySizes(final int parallelism, final boolean retainAll, final LongAdder statCallCount) {
+        this.pool          = new ForkJoinPool(parallelism);
+        this.retainAll     = retainAll;
+        this.statCallCount = statCallCount;
+    }
+
+    /**
+     * @return Recursive size of the directory, walked unless already known.
+     * */
+    Total get(final Path dir) {
+        final Total total = totals.get(dir);
+        if(total != null)
+            return total;
+        final long size;
+        try {
+            statCallCount.increment();
+            size = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).size();
+        } catch(IOException e) {
+            return new Total(0L, 0L, false);
+        }
+        final boolean unix = dir.getFileSystem().supportedFileAttributeViews().contains("unix");
+        return pool.invoke(new SizeTask(dir, size, unix, ConcurrentHashMap.newKeySet(), 0));
+    }
+
+    /**
+     * Same as {@link #get(Path)}, the total not kept any longer: for a directory being listed, not asked for again.
+     * */
+    Total take(final Path dir) {
+        final Total total = get(dir);
+        totals.remove(dir);
+        return total;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Sums the sizes of the entries of a directory and forks the walk of its subdirectories.
+     * */
+    private final class SizeTask extends RecursiveTask<Total> {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final long ownSize;
+        private final boolean unix;
+        /** Keys of the files with several hard links counted so far, shared by the walk of the directory asked for */
+        private final Set<Object> linkedFiles;
+        /** Depth below the directory asked for */
+        private final int depth;
+
+        SizeTask(final Path dir, final long ownSize, final boolean unix, final Set<Object> linkedFiles, final int depth) {
+            this.dir         = dir;
+            this.ownSize     = ownSize;
+            this.unix        = unix;
+            this.linkedFiles = linkedFiles;
+            this.depth       = depth;
+        }
+
+        @Override
+        protected Total compute() {
+            long size = ownSize, files = 0L;
+            boolean linked = false;
+            final ArrayList<SizeTask> tasks = new ArrayList<>();
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for(Path entry : stream) {
+                    final long entrySize;
+                    final boolean directory;
+                    final Object linkedFileKey;
+                    statCallCount.increment();
+                    try {
+                        if(unix) {
+                            final Map<String, Object> attrs = Files.readAttributes(entry, UNIX_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+                            entrySize     = (Long)attrs.get("size");
+                            directory     = (Boolean)attrs.get("isDirectory");
+                            linkedFileKey = ((Integer)attrs.get("nlink") > 1 ? attrs.get("fileKey") : null);
+                        } else {
+                            /* Without link counts, any file may be one of several links */
+                            final BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                            entrySize     = attrs.size();
+                            directory     = attrs.isDirectory();
+                            linkedFileKey = attrs.fileKey();
+                        }
+                    } catch(IOException e) {
+                        continue;
+                    }
+                    if(directory) {
+                        final Total total = totals.get(entry);
+                        if(total != null && !total.linked) {
+                            size  += total.size;
+                            files += total.files;
+                        } else {
+                            final SizeTask task = new SizeTask(entry, entrySize, unix, linkedFiles, depth + 1);
+                            task.fork();
+                            tasks.add(task);
+                        }
+                    } else {
+                        linked |= (linkedFileKey != null);
+                        if(linkedFileKey == null || linkedFiles.add(linkedFileKey)) {
+                            size += entrySize;
+                            files++;
+                        }
+                    }
+                }
+            } catch(IOException | DirectoryIteratorException e) {
+                /* Counted as far as read */
+            }
+            for(SizeTask task : tasks) {
+                final Total total = task.join();
+                size  += total.size;
+                files += total.files;
+                linked |= total.linked;
+            }
+            final Total total = new Total(size, files, linked);
+            if((retainAll || depth <= 1) && (depth == 0 || !linked))
+                totals.put(dir, total);
+            return total;
+        }
+    }
+}
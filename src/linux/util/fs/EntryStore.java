@@ -0,0 +1,354 @@
+package linux.util.fs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Columnar store of the entries of a directory listing, one primitive array per attribute.
+ * <p> Entries are referred to by their index, in the order they were added. Names are packed into a
+ * shared character arena, owners are held once each in a table. Only the columns required by the
+ * listing are allocated, the others are ignored when adding.
+ * <p> Entries are sorted through an index array on precomputed primitive keys, and in parallel
+ * above {@link #PARALLEL_SORT_THRESHOLD} entries.
+ * <p> Not thread safe.
+ * */
+final class EntryStore {
+    /* Type codes, in the order of the type names */
+    static final byte TYPE_UNKNOWN   = 0;
+    static final byte TYPE_DIRECTORY = 1;
+    static final byte TYPE_FILE      = 2;
+    static final byte TYPE_SYMLINK   = 3;
+    static final String[] TYPE_NAMES = { "?", "dir", "file", "slnk" };
+    /** Type names of the machine readable formats, same order */
+    static final String[] TYPE_KEYS = { "unknown", "directory", "file", "symlink" };
+
+    /* Access permission bits */
+    static final int ACCESS_READ    = 4;
+    static final int ACCESS_WRITE   = 2;
+    static final int ACCESS_EXECUTE = 1;
+
+    /** Modification time of an entry whose attributes could not be read */
+    static final long UNKNOWN_MTIME = Long.MIN_VALUE;
+
+    /** Number of entries from which sorting is done in parallel */
+    static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
+
+    private int count = 0;
+    private char[] names = new char[1024];
+    private int namesLength = 0;
+    /** Start of each name in the arena, the name of the entry i ends where the one of i+1 starts */
+    private int[] nameOffsets;
+
+    private long[] sizes, mtimes;
+    /** Nanoseconds within the millisecond of the modification time, for sorting only */
+    private int[] mtimeNanos;
+    private byte[] types, permissions;
+    private int[] owners;
+    private final ArrayList<String> ownerNames = new ArrayList<>();
+    private final HashMap<String, Integer> ownerIds = new HashMap<>();
+    /** Names to be shown instead of the entry names, usually none */
+    private final HashMap<Integer, String> displayNames = new HashMap<>();
+    /** Numbers of files below the directory entries, when their recursive sizes are shown */
+    private final HashMap<Integer, Long> fileCounts = new HashMap<>();
+
+    /**
+     * @param capacity Initial number of entries.
+     * */
+    EntryStore(final int capacity, final boolean withTypes, final boolean withSizes, final boolean withMTimes,
+               final boolean withMTimeNanos, final boolean withPermissions, final boolean withOwners) {
+        nameOffsets = new int[capacity + 1];
+        types       = (withTypes       ? new byte[capacity] : null);
+        sizes       = (withSizes       ? new long[capacity] : null);
+        mtimes      = (withMTimes      ? new long[capacity] : null);
+        mtimeNanos  = (withMTimeNanos  ? new int[capacity]  : null);
+        permissions = (withPermissions ? new byte[capacity] : null);
+        owners      = (withOwners      ? new int[capacity]  : null);
+    }
+
+    /**
+     * Adds an entry, the attributes of columns not in the store are ignored.
+     * @param mtime Modification time in milliseconds since the epoch, {@link #UNKNOWN_MTIME} if unknown.
+     * @param mtimeNanos Nanoseconds within the millisecond of the modification time.
+     * @param access Access permission bits.
+     * @return Index of the entry.
+     * */
+    int add(final String name, final byte type, final long size, final long mtime, final int mtimeNanos,
+            final int access, final String owner) {
+        if(count == nameOffsets.length - 1)
+            grow();
+        final int length = name.length();
+        if(namesLength + length > names.length)
+            names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + length));
+        name.getChars(0, length, names, namesLength);
+        namesLength += length;
+        nameOffsets[count + 1] = namesLength;
+
+        if(types != null)       types[count] = type;
+        if(sizes != null)       sizes[count] = size;
+        if(mtimes != null)      mtimes[count] = mtime;
+        if(this.mtimeNanos != null) this.mtimeNanos[count] = mtimeNanos;
+        if(permissions != null) permissions[count] = (byte)access;
+        if(owners != null) {
+            Integer id = ownerIds.get(owner);
+            if(id == null) {
+                id = ownerNames.size();
+                ownerNames.add(owner);
+                ownerIds.put(owner, id);
+            }
+            owners[count] = id;
+        }
+        return count++;
+    }
+
+    private void grow() {
+        final int capacity = Math.max(16, count * 2);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+        if(types != null)       types       = Arrays.copyOf(types, capacity);
+        if(sizes != null)       sizes       = Arrays.copyOf(sizes, capacity);
+        if(mtimes != null)      mtimes      = Arrays.copyOf(mtimes, capacity);
+        if(mtimeNanos != null)  mtimeNanos  = Arrays.copyOf(mtimeNanos, capacity);
+        if(permissions != null) permissions = Arrays.copyOf(permissions, capacity);
+        if(owners != null)      owners      = Arrays.copyOf(owners, capacity);
+    }
+
+    /**
+     * Sets the name to be shown for an entry instead of its own name.
+     * */
+    void setDisplayName(final int i, final String displayName) {
+        displayNames.put(i, displayName);
+    }
+
+    /**
+     * Sets the number of files below a directory entry.
+     * */
+    void setFileCount(final int i, final long files) {
+        fileCounts.put(i, files);
+    }
+
+    /**
+     * Removes all entries, keeping the allocated columns for reuse.
+     * */
+    void clear() {
+        count = 0;
+        namesLength = 0;
+        ownerNames.clear();
+        ownerIds.clear();
+        displayNames.clear();
+        fileCounts.clear();
+    }
+
+    int size() {
+        return count;
+    }
+
+    String getName(final int i) {
+        return new String(names, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i]);
+    }
+
+    /**
+     * Renders the name of an entry without creating any string.
+     * */
+    void renderName(final int i, final OutputRenderer renderer) {
+        renderer.text(names, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i]);
+    }
+
+    /**
+     * Renders the name of an entry as the content of a JSON string, without creating any string.
+     * */
+    void renderJsonName(final int i, final OutputRenderer renderer) {
+        renderer.jsonText(names, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i]);
+    }
+
+    /**
+     * @return Number of characters of the name of an entry.
+     * */
+    int getNameLength(final int i) {
+        return nameOffsets[i + 1] - nameOffsets[i];
+    }
+
+    /**
+     * @return Name to be shown instead of the entry name, null if none.
+     * */
+    String getDisplayName(final int i) {
+        return (displayNames.isEmpty() ? null : displayNames.get(i));
+    }
+
+    byte getType(final int i)       { return types[i]; }
+    long getSize(final int i)       { return sizes[i]; }
+    long getMTime(final int i)      { return mtimes[i]; }
+    int getAccess(final int i)      { return permissions[i]; }
+    String getOwner(final int i)    { return ownerNames.get(owners[i]); }
+
+    /**
+     * @return Number of files below a directory entry, -1 if not set.
+     * */
+    long getFileCount(final int i) {
+        final Long files = (fileCounts.isEmpty() ? null : fileCounts.get(i));
+        return (files == null ? -1L : files);
+    }
+
+    /**
+     * Compares the names of two entries, same as {@link String#compareTo(String)}.
+     * */
+    int compareNames(final int i, final int j) {
+        int pi = nameOffsets[i], pj = nameOffsets[j];
+        final int ei = nameOffsets[i + 1], ej = nameOffsets[j + 1];
+        for(; pi < ei && pj < ej; pi++, pj++) {
+            final char ci = names[pi], cj = names[pj];
+            if(ci != cj)
+                return ci - cj;
+        }
+        return (ei - pi) - (ej - pj);
+    }
+
+    /**
+     * @return Primitive key of an entry for sorting by size (s), modification time (m) or type (t):
+     * entries with unknown attributes first.
+     * */
+    long getSortKey(final int i, final char sortBy) {
+        switch(sortBy) {
+            case 's': return sizes[i];
+            case 't': return types[i];
+            case 'm': return getMTimeSortKey(mtimes[i], (mtimeNanos == null ? 0 : mtimeNanos[i]));
+            default: throw new AssertionError("Should not get here: Invalid sortBy value: " + sortBy);
+        }
+    }
+
+    /**
+     * @return Key for sorting by modification time, in nanoseconds: unknown times first.
+     * @param mtime Modification time in milliseconds since the epoch, {@link #UNKNOWN_MTIME} if unknown.
+     * @param mtimeNanos Nanoseconds within the millisecond of the modification time.
+     * */
+    static long getMTimeSortKey(final long mtime, final int mtimeNanos) {
+        if(mtime == UNKNOWN_MTIME)
+            return Long.MIN_VALUE;
+        /* Saturated beyond the years 1677 and 2262 */
+        if(mtime > Long.MAX_VALUE / 1_000_000L)
+            return Long.MAX_VALUE;
+        if(mtime < (Long.MIN_VALUE + 1) / 1_000_000L)
+            return Long.MIN_VALUE + 1;
+        return mtime * 1_000_000L + mtimeNanos;
+    }
+
+    /**
+     * Sorts the entries, stable: entries with equal keys stay in the order they were added, even in descending order.
+     * @param sortBy Sort attribute: n, s, m or t.
+     * @return Indices of the entries in sorted order.
+     * */
+    int[] sort(final char sortBy, final boolean sortInAsc) {
+        if(sortBy == 'n')
+            return sortByComparator(sortInAsc ? this::compareNames : (i, j) -> compareNames(j, i));
+
+        final long[] keys = new long[count];
+        for(int i = 0; i < count; i++)
+            keys[i] = getSortKey(i, sortBy);
+        final int[] order = sortPacked(keys, sortInAsc);
+        if(order != null)
+            return order;
+        return sortByComparator(sortInAsc
+                                    ? (i, j) -> Long.compare(keys[i], keys[j])
+                                    : (i, j) -> Long.compare(keys[j], keys[i]));
+    }
+
+    /**
+     * Sorts the keys packed with the entry index into single longs, the index breaking ties.
+     * @return Indices of the entries in sorted order, null if the range of the keys is too large to be packed.
+     * */
+    private int[] sortPacked(final long[] keys, final boolean sortInAsc) {
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for(long key : keys) {
+            min = Math.min(min, key);
+            max = Math.max(max, key);
+        }
+        final int indexBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(count - 1));
+        final long range = max - min;
+        if(count > 0 && (range < 0 || (64 - Long.numberOfLeadingZeros(range)) + indexBits > 63))
+            return null;
+
+        final long[] packed = new long[count];
+        for(int i = 0; i < count; i++)
+            packed[i] = ((sortInAsc ? keys[i] - min : max - keys[i]) << indexBits) | i;
+        if(count >= PARALLEL_SORT_THRESHOLD)
+            Arrays.parallelSort(packed);
+        else
+            Arrays.sort(packed);
+
+        final long indexMask = (1L << indexBits) - 1;
+        final int[] order = new int[count];
+        for(int i = 0; i < count; i++)
+            order[i] = (int)(packed[i] & indexMask);
+        return order;
+    }
+
+    /**
+     * Compares two entries by their index.
+     * */
+    interface IndexComparator {
+        int compare(int i, int j);
+    }
+
+    private int[] sortByComparator(final IndexComparator comparator) {
+        final int[] order = new int[count];
+        for(int i = 0; i < count; i++)
+            order[i] = i;
+        new MergeSortTask(order, new int[count], 0, count, comparator).invoke();
+        return order;
+    }
+
+    /**
+     * Stable merge sort of a range of an index array, both halves sorted in parallel above the threshold.
+     * */
+    private static final class MergeSortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int INSERTION_SORT_THRESHOLD = 32;
+        private final int[] a, tmp;
+        private final int from, to;
+        private final IndexComparator comparator;
+
+        MergeSortTask(final int[] a, final int[] tmp, final int from, final int to, final IndexComparator comparator) {
+            this.a          = a;
+            this.tmp        = tmp;
+            this.from       = from;
+            this.to         = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            final int length = to - from;
+            if(length <= INSERTION_SORT_THRESHOLD) {
+                for(int i = from + 1; i < to; i++) {
+                    final int x = a[i];
+                    int j = i - 1;
+                    for(; j >= from && comparator.compare(a[j], x) > 0; j--)
+                        a[j + 1] = a[j];
+                    a[j + 1] = x;
+                }
+                return;
+            }
+
+            final int mid = (from + to) >>> 1;
+            final MergeSortTask left = new MergeSortTask(a, tmp, from, mid, comparator);
+            final MergeSortTask right = new MergeSortTask(a, tmp, mid, to, comparator);
+            if(length >= PARALLEL_SORT_THRESHOLD) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+
+            if(comparator.compare(a[mid - 1], a[mid]) <= 0)
+                return; /* Already in order */
+            System.arraycopy(a, from, tmp, from, length);
+            int i = from, j = mid, k = from;
+            while(i < mid && j < to)
+                a[k++] = (comparator.compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++]);
+            while(i < mid)
+                a[k++] = tmp[i++];
+            while(j < to)
+                a[k++] = tmp[j++];
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package linux.util.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded memory sort of rendered entry lines, for directories too large to be sorted in the heap.
+ * <p> The caller sorts the entries in chunks, and writes each chunk as a sorted run to a temporary file
+ * with the sort key and the rendered line of every entry. The runs are then merged (k-way) straight
+ * into the output, holding only one record and a small read buffer per run in memory.
+ * <p> At most {@link #MAX_FAN_IN} runs are merged at once, so that memory and open files stay bounded
+ * however many runs there are: consecutive runs are first merged into intermediate runs, in as many
+ * passes as needed.
+ * <p> The merge is stable: records with equal keys come out in the order they were written, same as
+ * sorting all of them at once with {@link EntryStore#sort(char, boolean)}.
+ * <p> Not thread safe.
+ * */
+final class ExternalSorter implements Closeable {
+    /** Maximum number of runs merged at once */
+    static final int MAX_FAN_IN = 64;
+    /** Size of the read buffer of each run merged */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Sort key and rendered line of an entry.
+     * */
+    static final class Record {
+        /** Key for sorting by name */
+        String textKey;
+        /** Key for the other sort attributes, see {@link EntryStore#getSortKey(int, char)} */
+        long numericKey;
+        /* Rendered line, in the first bytes of the array */
+        private byte[] line = new byte[128];
+        private int lineLength;
+    }
+
+    private final char sortBy;
+    private final Comparator<Record> comparator;
+    /** Runs not merged yet, in the order they were written */
+    private final ArrayList<Path> runs = new ArrayList<>();
+    private DataOutputStream run;
+
+    /**
+     * @param sortBy Sort attribute, telling which key of the records is used.
+     * @param comparator Order of the records.
+     * */
+    ExternalSorter(final char sortBy, final Comparator<Record> comparator) {
+        this.sortBy     = sortBy;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Starts a new run, the records written until the next call to {@link #endRun()} must be in sorted order.
+     * */
+    void beginRun() throws IOException {
+        run = newRun(runs.size());
+    }
+
+    /**
+     * @return Stream of a new run, inserted at the specified position among the runs.
+     * */
+    private DataOutputStream newRun(final int position) throws IOException {
+        final Path file = Files.createTempFile("ls-sort-", ".run");
+        runs.add(position, file);
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), OutputRenderer.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * Writes the record of the next entry of the current run.
+     * @param line Renderer holding only the rendered line of the entry.
+     * */
+    void write(final Record key, final OutputRenderer line) throws IOException {
+        writeKey(run, key);
+        run.writeInt(line.size());
+        line.writeTo(run);
+    }
+
+    private void writeKey(final DataOutputStream run, final Record key) throws IOException {
+        if(sortBy == 'n')
+            run.writeUTF(key.textKey);
+        else
+            run.writeLong(key.numericKey);
+    }
+
+    void endRun() throws IOException {
+        run.close();
+        run = null;
+    }
+
+    /**
+     * Merges all runs into the output, in sorted order.
+     * */
+    void merge(final OutputRenderer out) throws IOException {
+        while(runs.size() > MAX_FAN_IN) {
+            /* One pass: each group of consecutive runs is replaced with a run of its merged records */
+            for(int first = 0; first < runs.size(); first++) {
+                final int last = Math.min(first + MAX_FAN_IN, runs.size());
+                final ArrayList<Path> group = new ArrayList<>(runs.subList(first, last));
+                runs.subList(first, last).clear();
+                try(DataOutputStream merged = newRun(first)) {
+                    merge(group, null, merged);
+                } finally {
+                    for(Path file : group)
+                        Files.deleteIfExists(file);
+                }
+            }
+        }
+        merge(runs, out, null);
+    }
+
+    /**
+     * Merges the specified runs into the output, or into another run.
+     * @param out Output the lines are rendered to, null if merged into a run.
+     * @param merged Run the records are written to, null if merged into the output.
+     * */
+    private void merge(final java.util.List<Path> files, final OutputRenderer out, final DataOutputStream merged) throws IOException {
+        final ArrayList<RunReader> readers = new ArrayList<>(files.size());
+        try {
+            /* Ties are broken on the run order, for a stable merge */
+            final PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, files.size()), (r1, r2) -> {
+                final int c = comparator.compare(r1.record, r2.record);
+                return (c != 0 ? c : Integer.compare(r1.index, r2.index));
+            });
+            for(Path file : files) {
+                final RunReader reader = new RunReader(readers.size(), file);
+                readers.add(reader);
+                if(reader.next())
+                    queue.add(reader);
+            }
+            while(!queue.isEmpty()) {
+                final RunReader reader = queue.poll();
+                final Record record = reader.record;
+                if(merged == null) {
+                    out.bytes(record.line, 0, record.lineLength);
+                } else {
+                    writeKey(merged, record);
+                    merged.writeInt(record.lineLength);
+                    merged.write(record.line, 0, record.lineLength);
+                }
+                if(reader.next())
+                    queue.add(reader);
+            }
+        } finally {
+            for(RunReader reader : readers)
+                reader.in.close();
+        }
+    }
+
+    /**
+     * Deletes all runs.
+     * */
+    @Override
+    public void close() throws IOException {
+        if(run != null)
+            endRun();
+        for(Path file : runs)
+            Files.deleteIfExists(file);
+        runs.clear();
+    }
+
+    /**
+     * Reads the records of a run, one at a time.
+     * */
+    private final class RunReader {
+        final int index;
+        final DataInputStream in;
+        final Record record = new Record();
+
+        RunReader(final int index, final Path file) throws IOException {
+            this.index = index;
+            this.in    = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), READ_BUFFER_SIZE));
+        }
+
+        /**
+         * @return false if the run has no more record.
+         * */
+        boolean next() throws IOException {
+            try {
+                if(sortBy == 'n')
+                    record.textKey = in.readUTF();
+                else
+                    record.numericKey = in.readLong();
+            } catch(EOFException e) {
+                return false;
+            }
+            final int length = in.readInt();
+            if(length > record.line.length)
+                record.line = new byte[Math.max(length, record.line.length * 2)];
+            in.readFully(record.line, 0, length);
+            record.lineLength = length;
+            return true;
+        }
+    }
+}
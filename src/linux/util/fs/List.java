@@ -2,16 +2,38 @@
 package linux.util.fs;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
 import java.nio.file.Files;
-import java.nio.file.FileVisitResult;
-import java.nio.file.FileVisitor;
+import java.nio.file.FileSystem;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.attribute.AclFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.util.Collections;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class List {
     public static final float APP_VERSION = 1.00f;
@@ -35,10 +57,83 @@ public class List {
      * <p> - s = size = file size
      * <p> - m = mtime = modification time
      * <p> - t = type = file type
+     * <p> - u = none = not sorted, entries are shown as soon as read (in directory order) with constant memory
      * */
     private final char sortBy;
     private final boolean sortInAsc;
     private final java.util.List<Path> filesToDisplay;
+    /** Attributes to be loaded for each entry, as computed from the options */
+    private AttributePlan plan;
+    
+    /** Attributes read in one call from the unix view: those of the POSIX view, with numeric ids instead of names */
+    private static final String UNIX_ATTRIBUTES = "unix:mode,uid,gid,size,lastModifiedTime,lastAccessTime,creationTime,"
+                                                + "isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey,dev";
+    
+    /* Standard output and error, those of the process unless set */
+    private OutputStream stdout = System.out;
+    private PrintStream stderr = System.err;
+    /** Renderer of the standard output */
+    private OutputRenderer out = new OutputRenderer(stdout);
+    /** Directory the relative files to display are resolved against, null for the working directory of the process */
+    private Path workingDirectory = null; /* default value set */
+    /** Length of the start of the paths of the file to display being listed which is not shown: that of the working directory it was resolved against */
+    private int hiddenPrefixLength = 0;
+    /** Values:
+     * <p> - t = text = lines as shown by ls
+     * <p> - j = ndjson = one JSON object per entry and line
+     * <p> - b = binary = one length-prefixed record per entry
+     * */
+    private char outputFormat = 't'; /* default value set */
+    /** Number of directories listed concurrently when showing recursively, and walked concurrently for their recursive sizes */
+    private int parallelism = 1; /* default value set */
+    /** Number of entries of a directory sorted in memory, above which the sort uses temporary files; 0 for no limit */
+    private int sortMemoryLimit = 0; /* default value set */
+    
+    /* Attribute loading counters, updated concurrently */
+    private final LongAdder statCallCount = new LongAdder();
+    private final LongAdder loadedEntryCount = new LongAdder();
+    /* Attribute view used to read owners and permissions on each file system seen, shared by all listings */
+    private static final ConcurrentHashMap<FileSystem, String> ATTRIBUTE_VIEWS = new ConcurrentHashMap<>();
+    /** User names by numeric id, shared by all listings so that a resident process looks each user up once */
+    private static final OwnerCache OWNER_CACHE = new OwnerCache(OwnerCache.DEFAULT_CAPACITY);
+    /** Numeric user id the system checks access for (real user id), -1 if unknown (not a Unix platform) */
+    private static final long CURRENT_UID;
+    static {
+        long uid;
+        try {
+            uid = new com.sun.security.auth.module.UnixSystem().getUid();
+        } catch(LinkageError | RuntimeException e) {
+            uid = -1L;
+        }
+        CURRENT_UID = uid;
+    }
+    private static final long SUPER_USER_UID = 0L;
+    /** Types of file systems whose permissions are decided by ACLs on the server, whatever the mode bits */
+    private static final Set<String> ACL_FILE_SYSTEMS = Set.of("nfs4", "cifs", "smb3");
+    /** Whether the mode bits decide the access of the owner on each device (file system) seen, by device id */
+    private final ConcurrentHashMap<Long, Boolean> modeDecidesAccess = new ConcurrentHashMap<>();
+    /** Show numeric user ids instead of user names */
+    private boolean displayNumericIds = false; /* default value set */
+    /** Index of directory listings reused across runs, null for none */
+    private SnapshotCache snapshotCache = null; /* default value set */
+    /** Whether the index is rebuilt from scratch rather than loaded */
+    private boolean rebuildSnapshotCache = false; /* default value set */
+    /** Watcher of the listed directories when watching, null otherwise */
+    private volatile ListingWatcher watcher = null;
+    /** Format of the statistics shown once listed: text or json, null for none */
+    private String statsFormat = null; /* default value set */
+    /** Statistics of the current listing, null if not shown */
+    private ListingStats stats = null;
+    /** Show the recursive sizes of directories instead of their own sizes */
+    private boolean displayDirectorySizes = false; /* default value set */
+    /** Recursive sizes of the directories of the current listing, null if not shown */
+    private DirectorySizes directorySizes = null;
+    /** Filters of the entries by name, null for none */
+    private NameFilter nameFilter = null; /* default value set */
+    /** Number of levels of subdirectories listed below each directory to display when showing recursively, -1 for no limit */
+    private int maxDepth = -1; /* default value set */
+    /** Number of first entries shown, of each directory or of each tree when showing recursively; 0 for all */
+    private int topCount = 0; /* default value set */
     
     
     public List(final char                 sortBy,
@@ -55,6 +150,205 @@ public class List {
         this.displayInHumanUnderstandableFormat = displayInHumanUnderstandableFormat;
         this.showRecursively                    = showRecursively;
         this.filesToDisplay                     = filesToDisplay;
+        updatePlan();
+    }
+    
+    private void updatePlan() {
+        /* Records of the machine readable formats carry all the attributes of the long format */
+        this.plan = new AttributePlan(sortBy, displayInLongFormat || outputFormat != 't', displayInHumanUnderstandableFormat, 
+                                      snapshotCache != null);
+    }
+
+    /**
+     * Sets the number of directories listed concurrently when showing recursively, and walked concurrently 
+     * for their recursive sizes.
+     * @param parallelism 1 to list serially (default), 0 for the number of available processors.
+     * @return This object.
+     * @throws IllegalArgumentException If the parallelism level is negative.
+     * */
+    public List setParallelism(final int parallelism) throws IllegalArgumentException {
+        if(parallelism < 0)
+            throw new IllegalArgumentException("Invalid parallelism level: " + parallelism);
+        this.parallelism = (parallelism == 0 ? Runtime.getRuntime().availableProcessors() : parallelism);
+        return this;
+    }
+
+    /**
+     * Sets the streams the listing is written to, instead of the standard output and error of the process, 
+     * e.g. to serve several listings at once.
+     * @return This object.
+     * */
+    public List setOutputStreams(final OutputStream stdout, final PrintStream stderr) {
+        this.stdout = stdout;
+        this.stderr = stderr;
+        this.out    = new OutputRenderer(stdout, getOutputCharset(), OutputRenderer.DEFAULT_CAPACITY);
+        return this;
+    }
+
+    /**
+     * Sets the directory the relative files to display are resolved against, instead of the working directory 
+     * of the process, e.g. to serve listings on behalf of other processes. Their paths are still shown as given.
+     * @return This object.
+     * */
+    public List setWorkingDirectory(final Path workingDirectory) {
+        this.workingDirectory = workingDirectory;
+        return this;
+    }
+
+    /**
+     * Sets the number of entries of a directory sorted in memory. Larger directories are sorted in chunks
+     * of that many entries written to temporary files, and merged while shown.
+     * @param sortMemoryLimit Number of entries, 0 for no limit (default).
+     * @return This object.
+     * @throws IllegalArgumentException If the number of entries is negative.
+     * */
+    public List setSortMemoryLimit(final int sortMemoryLimit) throws IllegalArgumentException {
+        if(sortMemoryLimit < 0)
+            throw new IllegalArgumentException("Invalid sort memory limit: " + sortMemoryLimit);
+        this.sortMemoryLimit = sortMemoryLimit;
+        return this;
+    }
+
+    /**
+     * Sets whether owners are shown as numeric user ids, without any user name lookup.
+     * @return This object.
+     * */
+    public List setNumericIds(final boolean displayNumericIds) {
+        this.displayNumericIds = displayNumericIds;
+        return this;
+    }
+
+    /**
+     * Sets the file of the index of directory listings reused across runs: the listing of a directory 
+     * is taken from the index as long as the directory is not modified, instead of reading its entries again.
+     * <p> The index is loaded when the listing starts and saved when it ends. 
+     * @param file Index file, null for none (default).
+     * @param rebuild Whether to ignore the current content of the index and rebuild it.
+     * @return This object.
+     * */
+    public List setSnapshotCache(final Path file, final boolean rebuild) {
+        this.snapshotCache        = (file == null ? null : new SnapshotCache(file));
+        this.rebuildSnapshotCache = rebuild;
+        updatePlan();
+        return this;
+    }
+
+    /**
+     * Sets whether statistics of the listing are shown on the standard error once listed: time spent 
+     * reading directories, attributes and owners, sorting and writing the output; entries per second, 
+     * directories visited, attribute calls made and peak number of entries held in memory.
+     * <p> The same phases are recorded as JDK Flight Recorder events, for each directory listed.
+     * @param statsFormat text or json, null for none (default).
+     * @return This object.
+     * @throws IllegalArgumentException If the format is not valid.
+     * */
+    public List setStats(final String statsFormat) throws IllegalArgumentException {
+        if(statsFormat != null && !statsFormat.equals("text") && !statsFormat.equals("json"))
+            throw new IllegalArgumentException("Invalid stats format: " + statsFormat);
+        this.statsFormat = statsFormat;
+        return this;
+    }
+
+    /**
+     * Sets the filters of the entries by name, matched before any attribute of the entries is read, 
+     * so that the entries filtered out cost nothing but reading their names:
+     * <p> - includes = only the entries matching one of the patterns are shown, all if none; when showing
+     * recursively, the others are still walked into if directories (their type read for that)
+     * <p> - excludes = the entries matching one of the patterns are neither shown nor walked into
+     * <p> - prunes = the directories matching one of the patterns are shown, but not walked into
+     * <p> Patterns are those of {@link java.nio.file.FileSystem#getPathMatcher(String)}, e.g. 
+     * <code>glob:*.log</code> or <code>regex:.*\.log</code>, matched against the names of the entries. 
+     * Files to display are always shown.
+     * @return This object.
+     * @throws IllegalArgumentException If a pattern is not valid.
+     * */
+    public List setNameFilters(final java.util.List<String> includes, final java.util.List<String> excludes, 
+                               final java.util.List<String> prunes) throws IllegalArgumentException {
+        final NameFilter filter = new NameFilter(filesToDisplay.get(0).getFileSystem(), includes, excludes, prunes);
+        this.nameFilter = (filter.isEmpty() ? null : filter);
+        return this;
+    }
+
+    /**
+     * Sets the number of levels of subdirectories listed below each directory to display when showing 
+     * recursively: the directories deeper than that are not read at all.
+     * @param maxDepth Number of levels, 0 to list the directories to display only; -1 for no limit (default).
+     * @return This object.
+     * @throws IllegalArgumentException If the number of levels is below -1.
+     * */
+    public List setMaxDepth(final int maxDepth) throws IllegalArgumentException {
+        if(maxDepth < -1)
+            throw new IllegalArgumentException("Invalid maximum depth: " + maxDepth);
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Sets the number of first entries shown in the sort order (e.g. the largest files with size sort and 
+     * reverse order), of each directory; or of each tree of a directory to display when showing recursively, 
+     * with their paths from that directory.
+     * <p> Only that many entries are held while the entries are read, in a bounded heap, instead of all of them being sorted.
+     * @param topCount Number of entries, 0 for all (default).
+     * @return This object.
+     * @throws IllegalArgumentException If the number of entries is negative, or the entries are not sorted.
+     * */
+    public List setTop(final int topCount) throws IllegalArgumentException {
+        if(topCount < 0)
+            throw new IllegalArgumentException("Invalid number of entries: " + topCount);
+        if(topCount > 0 && sortBy == 'u')
+            throw new IllegalArgumentException("Cannot select first entries of unsorted listing");
+        this.topCount = topCount;
+        return this;
+    }
+
+    /**
+     * Sets whether directories are shown with their recursive size instead of their own size, same as 
+     * <code>du --apparent-size --bytes</code>: the sizes of all the entries below them (hidden or not, 
+     * symbolic links not followed, files with several hard links counted once) and their own. 
+     * Directories are then sorted by that size as well.
+     * <p> Each listed directory is also shown with its recursive size and number of files, after its total;
+     * and so is each directory entry in the machine readable formats (the number of files is added last
+     * to each binary record, -1 for entries which are not directories).
+     * <p> Subdirectories are walked concurrently, and each directory only once per listing even when 
+     * listing recursively.
+     * @return This object.
+     * */
+    public List setDirectorySizes(final boolean displayDirectorySizes) {
+        this.displayDirectorySizes = displayDirectorySizes;
+        return this;
+    }
+
+    /**
+     * Sets the format of the output:
+     * <p> - text = lines as shown by ls (default)
+     * <p> - ndjson = one JSON object per entry and line, without headers nor totals: 
+     * <code>{"path":"dir/name","type":"file","size":1024,"mtime":1700000000000,"permissions":"rw-","owner":"root"}</code>
+     * where the type is unknown, directory, file or symlink; the size is in bytes and the modification time in 
+     * milliseconds since the epoch, both null if unknown; the permissions are those of the current user
+     * <p> - binary = one record per entry, without headers nor totals, all integers big-endian: record length (int32, 
+     * not counting itself), type code (int8: 0 unknown, 1 directory, 2 file, 3 symlink), permissions (int8: read 4, 
+     * write 2, execute 1), size (int64, -1 if unknown), modification time in milliseconds since the epoch (int64, 
+     * {@link Long#MIN_VALUE} if unknown), owner length (uint16) and owner, path length (int32) and path
+     * <p> Paths are the listed directories resolved against the entry names, and text is in UTF-8 in both 
+     * machine readable formats, whatever the charset of the standard output.
+     * @param format text, ndjson or binary.
+     * @return This object.
+     * @throws IllegalArgumentException If the format is not valid.
+     * */
+    public List setOutputFormat(final String format) throws IllegalArgumentException {
+        switch(format) {
+            case "text":   outputFormat = 't'; break;
+            case "ndjson": outputFormat = 'j'; break;
+            case "binary": outputFormat = 'b'; break;
+            default: throw new IllegalArgumentException("Invalid output format: " + format);
+        }
+        out = new OutputRenderer(stdout, getOutputCharset(), OutputRenderer.DEFAULT_CAPACITY);
+        updatePlan();
+        return this;
+    }
+
+    private java.nio.charset.Charset getOutputCharset() {
+        return (outputFormat == 't' ? OutputRenderer.STDOUT_CHARSET : StandardCharsets.UTF_8);
     }
 
     /**
@@ -62,36 +356,381 @@ public class List {
      * @throws Exception For any programming error: Fatal error
      * */
     public void showList() throws Exception {
-        for(Path path : filesToDisplay) {
+        if(statsFormat != null) {
+            stats = new ListingStats();
+            stats.start();
+        }
+        if(snapshotCache != null)
+            loadSnapshotCache();
+        if(displayDirectorySizes)
+            directorySizes = new DirectorySizes(parallelism, showRecursively, statCallCount);
+        try {
+            showPaths();
+        } finally {
+            final ListingStats.Phase previous = enter(ListingStats.Phase.OUTPUT);
+            out.flush();
+            exit(previous);
+            if(directorySizes != null) {
+                directorySizes.close();
+                directorySizes = null;
+            }
+            if(snapshotCache != null)
+                saveSnapshotCache();
+            if(stats != null) {
+                stats.end(statCallCount.sum());
+                if(statsFormat.equals("json"))
+                    stats.printJson(stderr, statCallCount.sum());
+                else
+                    stats.print(stderr, statCallCount.sum());
+                stats = null;
+            }
+        }
+    }
+    
+    /**
+     * Switches the phase of the current thread, when collecting statistics.
+     * @return Phase left, to be switched back to with {@link #exit(ListingStats.Phase)}.
+     * */
+    private ListingStats.Phase enter(final ListingStats.Phase phase) {
+        final ListingStats stats = this.stats;
+        return (stats == null ? null : stats.enter(phase));
+    }
+    
+    private void exit(final ListingStats.Phase previous) {
+        final ListingStats stats = this.stats;
+        if(stats != null)
+            stats.exit(previous);
+    }
+    
+    /**
+     * Shows the listing, then keeps showing the entries added (+), removed (-) or modified (~) in the 
+     * listed directories (and their subdirectories when showing recursively), until interrupted.
+     * Files listed on their own are not watched.
+     * @throws IllegalStateException If the output format is not text.
+     * @throws Exception For any programming error: Fatal error
+     * */
+    public void watch() throws Exception {
+        if(outputFormat != 't')
+            throw new IllegalStateException("Cannot watch in output format: " + outputFormat);
+        watcher = new ListingWatcher(filesToDisplay.get(0).getFileSystem().newWatchService(), showRecursively, 
+                                     this::readWatchEntry, this::readWatchEntries);
+        try {
+            showList();
+            watcher.getFailures().forEach((dir, e) -> 
+                showError("Error: Cannot watch: %s (%s) %n", dir, (e.getCause() != null ? e.getCause() : e).getClass().getSimpleName()));
+            watcher.run(out);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            out.flush();
+            watcher.close();
+            watcher = null;
+        }
+    }
+    
+    /**
+     * @return Entry of a watched directory as read again, null if it does not exist anymore.
+     * */
+    private ListingWatcher.Entry readWatchEntry(final Path file) {
+        final FileAttributes attrs = new FileAttributes(file);
+        if(attrs.getAttributes() == null)
+            return null;
+        try {
+            return toWatchEntry(attrs, isShown(file));
+        } catch(IOException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * @return All entries of a watched directory as read again, null if it cannot be read.
+     * */
+    private java.util.List<ListingWatcher.Entry> readWatchEntries(final Path dir) {
+        final ArrayList<ListingWatcher.Entry> entries = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for(Path entry : stream)
+                entries.add(toWatchEntry(new FileAttributes(entry), isShown(entry)));
+        } catch(IOException | DirectoryIteratorException e) {
+            return null;
+        }
+        return entries;
+    }
+    
+    private ListingWatcher.Entry toWatchEntry(final FileAttributes attrs, final boolean shown) {
+        final OutputRenderer line = new OutputRenderer();
+        attrs.render(line);
+        return new ListingWatcher.Entry(attrs.name, attrs.isDirectory(), shown, line.toByteArray());
+    }
+    
+    private boolean isShown(final Path file) throws IOException {
+        return (nameFilter == null || nameFilter.isShown(file)) && (displayHiddenFiles || !Files.isHidden(file));
+    }
+    
+    /**
+     * @return Whether the subdirectories of a directory at the specified depth below a directory to display are walked into.
+     * */
+    private boolean walksInto(final int depth) {
+        return showRecursively && (maxDepth < 0 || depth < maxDepth);
+    }
+    
+    /**
+     * @return Whether an entry is a directory to walk into, its type read only if not pruned.
+     * @param walkInto Whether the subdirectories of the directory of the entry are walked into.
+     * */
+    private boolean isWalkedInto(final FileAttributes attrs, final boolean walkInto) {
+        return walkInto && (nameFilter == null || !nameFilter.isPruned(attrs.file)) && attrs.isDirectory();
+    }
+    
+    /**
+     * @return Stream of the entries of a directory, without those filtered out by name: their attributes are never read.
+     * @param walkInto Whether the subdirectories are walked into.
+     * */
+    private DirectoryStream<Path> newDirectoryStream(final Path dir, final boolean walkInto) throws IOException {
+        final NameFilter filter = nameFilter;
+        if(filter == null)
+            return Files.newDirectoryStream(dir);
+        return Files.newDirectoryStream(dir, entry -> filter.accepts(entry, walkInto));
+    }
+    
+    /**
+     * Lists the files to display without printing anything: the same entries in the same order as shown,
+     * as far as the sort, hidden files and recursion options go. A directory to display is replaced 
+     * with its entries, and any other file is an entry of its own.
+     * <p> Directories are read as the stream is consumed. All entries of a sorted directory are read 
+     * once the first one is consumed, with the sort attribute only; the other attributes of each entry 
+     * are read when asked for, through the attribute views the options imply (e.g. owners and permissions
+     * are read in one call with the other attributes in long format only, separately otherwise).
+     * <p> The stream must be closed if not consumed to the end, so that the directories being read are closed.
+     * @return Sequential stream of the entries, not printing any error: a directory which cannot be
+     * read throws an {@link UncheckedIOException} from the terminal operation of the stream.
+     * @throws IllegalStateException If only the first entries ({@link #setTop(int)}) or the recursive sizes
+     * of directories ({@link #setDirectorySizes(boolean)}) are to be shown, neither of which is streamed.
+     * */
+    public Stream<ListingEntry> stream() {
+        if(topCount > 0)
+            throw new IllegalStateException("Cannot stream the first entries only: " + topCount);
+        if(displayDirectorySizes)
+            throw new IllegalStateException("Cannot stream the recursive sizes of directories");
+        final EntryIterator iterator = new EntryIterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(iterator::close);
+    }
+    
+    /**
+     * Iterator over the entries of the files to display, reading directories as it goes, depth first.
+     * */
+    private final class EntryIterator implements Iterator<ListingEntry> {
+        private final Iterator<Path> roots = filesToDisplay.iterator();
+        /** File to display being read */
+        private Path root;
+        /** Directories to read, next on top */
+        private final ArrayDeque<Path> pending = new ArrayDeque<>();
+        /* Unsorted directory being read */
+        private DirectoryStream<Path> stream;
+        private Iterator<Path> entries;
+        private ArrayList<Path> subdirectories;
+        private boolean walkInto;
+        /* Sorted entries of the last directory read */
+        private Iterator<FileAttributes> sorted;
+        private ListingEntry next;
+        
+        @Override
+        public boolean hasNext() {
+            try {
+                while(next == null) {
+                    if(sorted != null && sorted.hasNext()) {
+                        next = toListingEntry(sorted.next());
+                    } else if(entries != null) {
+                        if(entries.hasNext())
+                            next = readEntry(entries.next());
+                        else
+                            closeDirectory();
+                    } else if(!pending.isEmpty()) {
+                        openDirectory(pending.pop());
+                    } else if(roots.hasNext()) {
+                        root = resolve(roots.next());
+                        if(Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS))
+                            openDirectory(root);
+                        else
+                            next = toListingEntry(new FileAttributes(root));
+                    } else {
+                        return false;
+                    }
+                }
+                return true;
+            } catch(DirectoryIteratorException e) {
+                close();
+                throw new UncheckedIOException(e.getCause());
+            } catch(IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        @Override
+        public ListingEntry next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            final ListingEntry entry = next;
+            next = null;
+            return entry;
+        }
+        
+        /**
+         * @return Entry, null if not shown.
+         * */
+        private ListingEntry readEntry(final Path file) throws IOException {
+            final FileAttributes attrs = new FileAttributes(file);
+            /* Hidden directories are walked into as well, same as the listing */
+            if(isWalkedInto(attrs, walkInto))
+                subdirectories.add(file);
+            return (isShown(file) ? toListingEntry(attrs) : null);
+        }
+        
+        private void openDirectory(final Path dir) throws IOException {
+            /* Subdirectories are resolved against their directory, so their depth is that of their names */
+            walkInto = walksInto(dir.getNameCount() - root.getNameCount());
+            stream = newDirectoryStream(dir, walkInto);
+            entries = stream.iterator();
+            subdirectories = new ArrayList<>();
+            if(sortBy == 'u')
+                return;
+            
+            /* All entries are needed to sort them, their sort attribute only */
+            final ArrayList<FileAttributes> all = new ArrayList<>();
+            while(entries.hasNext()) {
+                final Path file = entries.next();
+                final FileAttributes attrs = new FileAttributes(file);
+                if(isWalkedInto(attrs, walkInto))
+                    subdirectories.add(file);
+                if(isShown(file))
+                    all.add(attrs);
+            }
+            closeDirectory();
+            all.sort(getComparator());
+            sorted = all.iterator();
+        }
+        
+        /**
+         * Closes the directory being read, its subdirectories being read next in the order they were found.
+         * */
+        private void closeDirectory() throws IOException {
+            final DirectoryStream<Path> stream = this.stream;
+            this.stream  = null;
+            this.entries = null;
+            for(int i = subdirectories.size() - 1; i >= 0; i--)
+                pending.push(subdirectories.get(i));
+            subdirectories = null;
+            stream.close();
+        }
+        
+        void close() {
+            if(stream != null) {
+                try {
+                    stream.close();
+                } catch(IOException e) {
+                    /* Nothing more to read: ignored */
+                }
+            }
+            stream  = null;
+            entries = null;
+            sorted  = null;
+            pending.clear();
+            while(roots.hasNext())
+                roots.next();
+        }
+    }
+    
+    private ListingEntry toListingEntry(final FileAttributes attrs) {
+        return new ListingEntry(attrs.file, attrs.name, attrs);
+    }
+    
+    /**
+     * @return Order of the entries, same as {@link EntryStore#sort(char, boolean)}: stable, even in descending order.
+     * */
+    private Comparator<FileAttributes> getComparator() {
+        final Comparator<FileAttributes> comparator;
+        switch(sortBy) {
+            case 'n': comparator = Comparator.comparing(attrs -> attrs.name); break;
+            case 's': comparator = Comparator.comparingLong(FileAttributes::getSize); break;
+            case 't': comparator = Comparator.comparingInt(FileAttributes::getTypeCode); break;
+            case 'm': comparator = Comparator.comparingLong(attrs -> EntryStore.getMTimeSortKey(attrs.getMTimeMillis(), attrs.getMTimeNanos())); break;
+            default: throw new AssertionError("Should not get here: Invalid sortBy value: " + sortBy);
+        }
+        return (sortInAsc ? comparator : comparator.reversed());
+    }
+    
+    private void loadSnapshotCache() {
+        if(rebuildSnapshotCache) {
+            snapshotCache.clear();
+            return;
+        }
+        try {
+            snapshotCache.load();
+        } catch(IOException e) {
+            showError("Error: Cannot read cache: %s (%s) %n", snapshotCache.getFile(), e.getClass().getSimpleName());
+        }
+    }
+    
+    private void saveSnapshotCache() {
+        try {
+            snapshotCache.save();
+        } catch(IOException e) {
+            showError("Error: Cannot write cache: %s (%s) %n", snapshotCache.getFile(), e.getClass().getSimpleName());
+        }
+    }
+    
+    /**
+     * @return Path of the file to display, resolved against the working directory if set.
+     * */
+    private Path resolve(final Path file) {
+        return (workingDirectory == null ? file : workingDirectory.resolve(file));
+    }
+    
+    /**
+     * @return Path as shown: starting with the file to display being listed as given, not as resolved.
+     * */
+    private String display(final Path path) {
+        return path.toString().substring(hiddenPrefixLength);
+    }
+    
+    private void showPaths() throws Exception {
+        for(Path file : filesToDisplay) {
+            final Path path = resolve(file);
+            /* Paths below the file are resolved against it, so they start the same */
+            hiddenPrefixLength = path.toString().length() - file.toString().length();
             if(Files.isDirectory(path)) {
                 if(showRecursively) {
                     try {
-                        Files.walkFileTree(path, new FileVisitor<Path>() {
-                            @Override
-                            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                                showFile(dir);
-                                return FileVisitResult.CONTINUE;
-                            }
-                            @Override
-                            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
-                                if(e != null)
-                                    System.err.printf("Error: Cannot list: %s (%s) %n", dir, e.getClass().getSimpleName());
-                                return FileVisitResult.CONTINUE;
-                            }
-                            @Override
-                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                                // showFile(file); /* Not required as already listed inside preVisitDirectory(...) */
-                                return FileVisitResult.CONTINUE;
-                            }
-                            @Override
-                            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
-                                if(e != null)
-                                    System.err.printf("Error: Cannot list: %s (%s) %n", file, e.getClass().getSimpleName());
-                                return FileVisitResult.CONTINUE;
-                            }
-                        });
+                        /* Selected from the first entries of each directory, in walk order */
+                        final TopEntries<FileAttributes> top = (topCount > 0 ? new TopEntries<>(topCount, getComparator()) : null);
+                        /* A symbolic link to a directory is not walked into, same as Files.walkFileTree(...) */
+                        if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+                            new TreeWalker(parallelism, maxDepth, this::listDirectoryBlock, new TreeWalker.Visitor() {
+                                @Override
+                                public void preVisitDirectory(TreeWalker.Block block) {
+                                    if(top != null)
+                                        top.offerAll(getTop(block));
+                                    showBlock(block);
+                                }
+                                @Override
+                                public void visitDirectoryFailed(Path dir, IOException e) {
+                                    showError("Error: Cannot list: %s (%s) %n", display(dir), e.getClass().getSimpleName());
+                                }
+                                @Override
+                                public void visitFileFailed(Path file, IOException e) {
+                                    showError("Error: Cannot list: %s (%s) %n", display(file), e.getClass().getSimpleName());
+                                }
+                                @Override
+                                public void postVisitDirectory(Path dir, IOException e) {
+                                    if(e != null)
+                                        showError("Error: Cannot list: %s (%s) %n", display(dir), e.getClass().getSimpleName());
+                                }
+                            }).walk(path);
+                        if(top != null)
+                            showTop(path, top);
                     } catch(Exception e) {
-                        System.err.printf("Error: Cannot list directory recursively: %s (%s) %n", path, (e==null?"unknown":e.getClass().getSimpleName()));
+                        showError("Error: Cannot list directory recursively: %s (%s) %n", display(path), (e==null?"unknown":e.getClass().getSimpleName()));
                         // e.printStackTrace(); /* As stack trace will also be printed in the main method's exception handles */
                         throw e; /* throw exception as its a programming error and should be reported to the Developers! */
                     }
@@ -108,127 +747,824 @@ public class List {
     private void showFile(final Path path) {
 //      $showOptions(); /* for diagnostics only */
         
-        System.out.printf("%n%s: %n", path);
         if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
-            long totalFileCount = 0L;
-            ArrayList<FileAttributes> list = new ArrayList<>();
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            showBlock(listDirectory(path, out, false));
+        } else {
+            final ListingStats.Phase previous = enter(ListingStats.Phase.OUTPUT);
+            showHeader(out, path);
+            new FileAttributes(path).render(out);
+            exit(previous);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static TopEntries<FileAttributes> getTop(final TreeWalker.Block block) {
+        return (TopEntries<FileAttributes>)block.top;
+    }
+    
+    /**
+     * Shows the first entries of a tree, with their paths from its root.
+     * */
+    private void showTop(final Path root, final TopEntries<FileAttributes> top) {
+        final ListingStats.Phase previous = enter(ListingStats.Phase.OUTPUT);
+        showHeader(out, root);
+        for(FileAttributes attrs : top.toList())
+            attrs.render(out, root.relativize(attrs.file).toString());
+        if(outputFormat == 't')
+            out.text("Total: ").localDecimal(top.size()).text(" ").newLine();
+        exit(previous);
+    }
+    
+    private void showBlock(final TreeWalker.Block block) {
+        if(block.content != null) {
+            final ListingStats.Phase previous = enter(ListingStats.Phase.OUTPUT);
+            out.append(block.content);
+            exit(previous);
+        }
+        final IOException e = (block.openError != null ? block.openError : block.readError);
+        if(e != null)
+            showError("Error: Cannot access file: %s (%s) %n", display(block.dir), e.getClass().getSimpleName());
+    }
+    
+    /**
+     * Prints an error message, after the output rendered so far so that they show up in order.
+     * */
+    private void showError(final String format, final Object... args) {
+        out.flush();
+        stderr.printf(format, args);
+    }
+    
+    /**
+     * Same as <code>printf("%n%s: %n", path)</code>; nothing in the machine readable formats.
+     * */
+    private void showHeader(final OutputRenderer renderer, final Path path) {
+        if(outputFormat == 't')
+            renderer.newLine().text(display(path)).text(": ").newLine();
+    }
+    
+    /**
+     * @return Renderer holding everything rendered in memory, in the charset of the output.
+     * */
+    private OutputRenderer newBuffer() {
+        return new OutputRenderer(null, getOutputCharset(), 256);
+    }
+    
+    /**
+     * Lists a directory for the tree walker: straight to the output when walking serially, 
+     * into a block of its own otherwise.
+     * */
+    private TreeWalker.Block listDirectoryBlock(final Path dir, final boolean walkInto) {
+        return listDirectory(dir, (parallelism == 1 ? out : newBuffer()), walkInto);
+    }
+    
+    /**
+     * Lists a directory into the specified renderer, without printing any error.
+     * <p> Thread safe, so that directories can be listed concurrently into renderers of their own.
+     * @return Block holding the errors and, when showing recursively, the subdirectories; 
+     * and the content unless rendered to the output.
+     * @param walkInto Whether the subdirectories are walked into, to be held in the block.
+     * */
+    private TreeWalker.Block listDirectory(final Path dir, final OutputRenderer renderer, final boolean walkInto) {
+        final ListingStats stats = this.stats;
+        if(stats == null)
+            return readDirectory(dir, renderer, walkInto, null);
+        final ListingStats.DirectoryMark mark = stats.beginDirectory();
+        final ListingStats.Phase previous = stats.enter(ListingStats.Phase.READDIR);
+        try {
+            return readDirectory(dir, renderer, walkInto, mark);
+        } finally {
+            stats.exit(previous);
+            stats.endDirectory(mark, dir);
+        }
+    }
+    
+    /**
+     * Same as {@link #listDirectory(Path, OutputRenderer, boolean)}.
+     * @param mark Start of the listing in the statistics, null if none.
+     * */
+    private TreeWalker.Block readDirectory(final Path dir, final OutputRenderer renderer, final boolean walkInto, 
+                                          final ListingStats.DirectoryMark mark) {
+        final DirectoryListing listing = new DirectoryListing(dir, renderer, walkInto, mark);
+        IOException openError = null, readError = null;
+        /* Watched before read, so that no change is missed */
+        final ListingWatcher watcher = this.watcher;
+        if(watcher != null)
+            watcher.register(dir, display(dir));
+        
+        /* An unmodified directory is listed from its snapshot, without reading it */
+        final SnapshotCache.Key key = (snapshotCache != null ? getSnapshotKey(dir) : null);
+        final SnapshotCache.Reader snapshot = (key != null ? snapshotCache.lookup(key) : null);
+        if(snapshot != null) {
+            listing.begin();
+            try {
+                while(snapshot.next()) {
+                    final Path entry = dir.resolve(snapshot.name);
+                    if(nameFilter != null && !nameFilter.accepts(entry, walkInto))
+                        continue;
+                    listing.add(new FileAttributes(entry, toUnixAttributes(entry, snapshot.attrs), 
+                                                   toUnixAttributes(entry, snapshot.target)));
+                }
+            } catch(IOException e) {
+                readError = e;
+            }
+            listing.finish();
+            return listing.toBlock(null, readError);
+        }
+        
+        /* A listing filtered by name does not hold all the entries of the directory */
+        SnapshotCache.Writer writer = (key != null && nameFilter == null ? new SnapshotCache.Writer() : null);
+        DirectoryStream<Path> stream = null;
+        try {
+            stream = newDirectoryStream(dir, walkInto);
+        } catch(IOException e) {
+            openError = e;
+        }
+        /* A directory which cannot be opened is only reported when walked, same as Files.walkFileTree(...) */
+        if(openError != null && showRecursively)
+            return listing.toBlock(openError, null);
+        listing.begin();
+        if(stream != null) {
+            try {
                 for(Path entry : stream) {
-                    if(Files.isHidden(entry)) {
-                        if(displayHiddenFiles) {
-                            list.add( new FileAttributes(entry) );
-                            totalFileCount++;
+                    final FileAttributes attrs = new FileAttributes(entry);
+                    /* A name which cannot be decoded back to the same file cannot be held in a snapshot, and an entry 
+                     * which cannot be read is read again next time, so that its error is reported when walked */
+                    if(writer != null && (!isPortableName(dir, entry, attrs.name) || attrs.getAttributes() == null))
+                        writer = null;
+                    if(writer != null)
+                        writer.write(attrs.name, toSnapshotAttributes(attrs.getAttributes()), 
+                                     toSnapshotAttributes(attrs.getTargetAttributes()));
+                    listing.add(attrs);
+                }
+            } catch(DirectoryIteratorException e) {
+                readError = e.getCause();
+            } catch(IOException e) {
+                readError = e;
+            } finally {
+                try {
+                    stream.close();
+                } catch(IOException e) {
+                    /* Nothing more to read: ignored */
+                }
+            }
+        }
+        if(writer != null && openError == null && readError == null)
+            snapshotCache.store(key, writer);
+        
+        listing.finish();
+        return listing.toBlock(openError, readError);
+    }
+    
+    /**
+     * Entries of a directory being listed into a renderer: sorted in a store (or by the external 
+     * sorter when too many), or rendered as soon as added when unsorted.
+     * */
+    private final class DirectoryListing {
+        final Path dir;
+        final OutputRenderer renderer;
+        /* Unsorted entries are rendered as soon as read, nothing is held but the count */
+        final boolean sorted = (sortBy != 'u');
+        /** First entries when only those are shown, held instead of all */
+        final TopEntries<FileAttributes> top = (topCount > 0 ? new TopEntries<>(topCount, getComparator()) : null);
+        final EntryStore store = (sorted && top == null ? newEntryStore() : null);
+        final ArrayList<Path> subdirectories = new ArrayList<>();
+        /** Entries which could not be walked into as their attributes could not be read, null if none */
+        ArrayList<TreeWalker.EntryError> entryErrors = null;
+        /** Whether the subdirectories are walked into */
+        final boolean walkInto;
+        /** Directory path the entry names are appended to in the machine readable formats, null in text */
+        final String pathPrefix;
+        /** Recursive size of the directory, null if not shown */
+        final DirectorySizes.Total total;
+        final ListingStats.DirectoryMark mark;
+        ExternalSorter sorter = null;
+        long totalFileCount = 0L;
+        
+        DirectoryListing(final Path dir, final OutputRenderer renderer, final boolean walkInto, final ListingStats.DirectoryMark mark) {
+            this.dir      = dir;
+            this.renderer = renderer;
+            this.walkInto = walkInto;
+            this.mark     = mark;
+            this.pathPrefix = (outputFormat == 't' ? null : toPathPrefix(dir));
+            /* Walks the whole tree at once, so that the subdirectories are walked concurrently */
+            this.total      = (directorySizes != null ? directorySizes.take(dir) : null);
+        }
+        
+        /**
+         * Starts rendering the listing, once the directory is known to be shown: unsorted entries are rendered as soon as added.
+         * */
+        void begin() {
+            if(!sorted)
+                showHeader(renderer, dir);
+        }
+        
+        void add(final FileAttributes attrs) throws IOException {
+            if(mark != null)
+                stats.countEntry(mark);
+            final boolean shown = isShown(attrs.file);
+            if(directorySizes != null && attrs.isDirectory())
+                attrs.total = directorySizes.get(attrs.file);
+            final ListingWatcher watcher = List.this.watcher;
+            if(watcher != null)
+                watcher.record(dir, toWatchEntry(attrs, shown));
+            /* Hidden directories are walked into as well, same as Files.walkFileTree(...) */
+            if(isWalkedInto(attrs, walkInto)) {
+                subdirectories.add(attrs.file);
+            } else if(walkInto && attrs.attrsError != null && (nameFilter == null || !nameFilter.isPruned(attrs.file))) {
+                /* Reported by the walker, same as Files.walkFileTree(...) */
+                if(entryErrors == null)
+                    entryErrors = new ArrayList<>();
+                entryErrors.add(new TreeWalker.EntryError(attrs.file, attrs.attrsError, subdirectories.size()));
+            }
+            if(shown) {
+                if(top != null) {
+                    top.offer(attrs);
+                } else if(sorted) {
+                    addEntry(store, attrs);
+                    if(mark != null)
+                        stats.holdEntries(1);
+                    if(store.size() == sortMemoryLimit) {
+                        if(sorter == null)
+                            sorter = new ExternalSorter(sortBy, List.this::compareSortKeys);
+                        try {
+                            writeSortedRun(store, sorter, pathPrefix);
+                        } catch(UncheckedIOException e) {
+                            /* Not finished: the temporary files are deleted now */
+                            try {
+                                sorter.close();
+                            } catch(IOException closeError) {
+                                e.addSuppressed(closeError);
+                            }
+                            sorter = null;
+                            throw e;
                         }
-                    } else {
-                        list.add( new FileAttributes(entry) );
-                        totalFileCount++;
                     }
+                } else {
+                    final ListingStats.Phase previous = enter(ListingStats.Phase.OUTPUT);
+                    attrs.render(renderer);
+                    exit(previous);
                 }
-            } catch(Exception e) {
-                System.err.printf("Error: Cannot access file: %s (%s) %n", path, e.getClass().getSimpleName());
+                totalFileCount++;
             }
-            Collections.sort(list);
-            for(FileAttributes attrs : list) {
-                System.out.println("  " + attrs);
+        }
+        
+        /**
+         * Renders the entries not rendered yet, and the total.
+         * */
+        void finish() {
+            if(top != null) {
+                /* Selected across the whole tree when showing recursively, shown once walked */
+                if(showRecursively)
+                    return;
+                final ListingStats.Phase previous = enter(ListingStats.Phase.OUTPUT);
+                showHeader(renderer, dir);
+                for(FileAttributes attrs : top.toList())
+                    attrs.render(renderer);
+                exit(previous);
+                totalFileCount = top.size();
+            } else if(sorter != null) {
+                try {
+                    if(store.size() > 0)
+                        writeSortedRun(store, sorter, pathPrefix);
+                    showHeader(renderer, dir);
+                    final ListingStats.Phase previous = enter(ListingStats.Phase.SORT);
+                    sorter.merge(renderer);
+                    exit(previous);
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    try {
+                        sorter.close();
+                    } catch(IOException e) {
+                        showError("Error: Cannot delete temporary files of: %s (%s) %n", display(dir), e.getClass().getSimpleName());
+                    }
+                }
+            } else if(sorted) {
+                ListingStats.Phase previous = enter(ListingStats.Phase.SORT);
+                final int[] order = store.sort(sortBy, sortInAsc);
+                exit(previous);
+                previous = enter(ListingStats.Phase.OUTPUT);
+                showHeader(renderer, dir);
+                for(int i : order) {
+                    renderEntry(store, i, renderer, pathPrefix);
+                }
+                exit(previous);
+                if(mark != null)
+                    stats.holdEntries(-store.size());
             }
-            
-            System.out.printf("Total: %d %n", totalFileCount);
+            if(outputFormat == 't') {
+                renderer.text("Total: ").localDecimal(totalFileCount).text(" ").newLine();
+                if(total != null) {
+                    renderer.text("Size: ");
+                    if(displayInHumanUnderstandableFormat && total.size >= 1024)
+                        renderer.fileSize(total.size, true, 0);
+                    else
+                        renderer.localDecimal(total.size).text(" B");
+                    renderer.text(" in ").localDecimal(total.files).text(" files ").newLine();
+                }
+            }
+        }
+        
+        TreeWalker.Block toBlock(final IOException openError, final IOException readError) {
+            final TreeWalker.Block block = new TreeWalker.Block(dir, openError, readError, (renderer == out ? null : renderer), subdirectories);
+            block.top         = top;
+            block.entryErrors = entryErrors;
+            return block;
+        }
+    }
+    
+    /**
+     * @return Path of the directory as the start of the paths of its entries, same as {@link Path#resolve(String)}.
+     * */
+    private String toPathPrefix(final Path dir) {
+        final String path = display(dir);
+        final String separator = dir.getFileSystem().getSeparator();
+        return (path.isEmpty() || path.endsWith(separator) ? path : path + separator);
+    }
+    
+    /**
+     * @return Whether the name of an entry resolves back to the entry, i.e. its bytes could all be 
+     * decoded into the name with the file system encoding.
+     * */
+    private static boolean isPortableName(final Path dir, final Path entry, final String name) {
+        boolean ascii = true;
+        for(int i = 0, n = name.length(); i < n && ascii; i++) {
+            final char c = name.charAt(i);
+            ascii = (c >= ' ' && c < 0x7f && c != '?');
+        }
+        if(ascii)
+            return true;
+        try {
+            return dir.resolve(name).equals(entry);
+        } catch(java.nio.file.InvalidPathException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * @return Key of the current state of a directory in the snapshot cache, null if the directory 
+     * cannot be cached: its attributes cannot be read, or its file system has no unix view or file keys.
+     * */
+    private SnapshotCache.Key getSnapshotKey(final Path dir) {
+        if(!"unix".equals(getAttributeView(dir)))
+            return null;
+        statCallCount.increment();
+        final ListingStats.Phase previous = enter(ListingStats.Phase.STAT);
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if(attrs.fileKey() == null)
+                return null;
+            final java.time.Instant mtime = attrs.lastModifiedTime().toInstant();
+            return new SnapshotCache.Key(dir.toAbsolutePath().normalize().toString(), attrs.fileKey().toString(), 
+                                         mtime.getEpochSecond(), mtime.getNano());
+        } catch(IOException e) {
+            return null;
+        } finally {
+            exit(previous);
+        }
+    }
+    
+    /**
+     * @return Empty store with the columns required by the attribute plan.
+     * */
+    private EntryStore newEntryStore() {
+        return new EntryStore(256, plan.needsType, plan.needsSize, plan.needsMTime, plan.needsMTimeNanos, 
+                              plan.needsPermissions, plan.needsOwner);
+    }
+    
+    /**
+     * Adds the attributes of an entry to the store, loading only those required by the attribute plan.
+     * */
+    private void addEntry(final EntryStore store, final FileAttributes attrs) {
+        final int i = store.add(attrs.name,
+                                (plan.needsType        ? attrs.getTypeCode()     : EntryStore.TYPE_UNKNOWN),
+                                (plan.needsSize        ? attrs.getSize()         : -1L),
+                                (plan.needsMTime       ? attrs.getMTimeMillis()  : EntryStore.UNKNOWN_MTIME),
+                                (plan.needsMTimeNanos  ? attrs.getMTimeNanos()   : 0),
+                                (plan.needsPermissions ? attrs.getAccessBits()   : 0),
+                                (plan.needsOwner       ? attrs.getOwner()        : null));
+        /* Only symbolic links are shown with a name of their own (with their target) */
+        if(displayInHumanUnderstandableFormat && outputFormat == 't' && attrs.isSymLink())
+            store.setDisplayName(i, attrs.getFileName());
+        if(attrs.total != null && outputFormat != 't')
+            store.setFileCount(i, attrs.total.files);
+    }
+    
+    /**
+     * Sorts the entries of the store, writes them as a run of the external sorter and clears the store.
+     * @param pathPrefix See {@link #renderEntry(EntryStore, int, OutputRenderer, String)}.
+     * @throws UncheckedIOException If the run cannot be written.
+     * */
+    private void writeSortedRun(final EntryStore store, final ExternalSorter sorter, final String pathPrefix) throws UncheckedIOException {
+        final ExternalSorter.Record key = new ExternalSorter.Record();
+        final OutputRenderer line = newBuffer();
+        final ListingStats.Phase previous = enter(ListingStats.Phase.SORT);
+        try {
+            sorter.beginRun();
+            for(int i : store.sort(sortBy, sortInAsc)) {
+                if(sortBy == 'n')
+                    key.textKey = store.getName(i);
+                else
+                    key.numericKey = store.getSortKey(i, sortBy);
+                line.reset();
+                renderEntry(store, i, line, pathPrefix);
+                sorter.write(key, line);
+            }
+            sorter.endRun();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            exit(previous);
+        }
+        if(stats != null)
+            stats.holdEntries(-store.size());
+        store.clear();
+    }
+    
+    /**
+     * Compares the sort keys of two entries written by the external sorter, same as {@link EntryStore#sort(char, boolean)}.
+     * */
+    private int compareSortKeys(final ExternalSorter.Record r1, final ExternalSorter.Record r2) {
+        final int c = (sortBy == 'n' 
+                        ? r1.textKey.compareTo(r2.textKey) 
+                        : Long.compare(r1.numericKey, r2.numericKey));
+        return sortInAsc ? c : -c;
+    }
+    
+    /**
+     * Renders the line of an entry, same as <code>println("  " + line)</code> where the line is 
+     * <code>String.format("%s  %10s  %-4s  %10s  %17s  %s", permissions, owner, type, size, mtime, name)</code>
+     * in long format, and only the name otherwise; or the record of the entry in the machine readable formats.
+     * <p> Package-private for the benchmarks.
+     * @param pathPrefix Path of the directory, ending with a separator, in the machine readable formats.
+     * */
+    void renderEntry(final EntryStore store, final int i, final OutputRenderer renderer, final String pathPrefix) {
+        if(outputFormat != 't') {
+            renderRecord(renderer, store.getType(i), store.getAccess(i), store.getOwner(i), store.getSize(i), store.getMTime(i), 
+                         store.getFileCount(i), pathPrefix, store, i);
+            return;
+        }
+        if(displayInLongFormat)
+            renderColumns(renderer, store.getType(i), store.getAccess(i), store.getOwner(i), store.getSize(i), store.getMTime(i));
+        else
+            renderer.text("  ");
+        final String displayName = store.getDisplayName(i);
+        if(displayName != null) {
+            renderer.text(displayName);
         } else {
-            System.out.println("  " + new FileAttributes(path));
+            store.renderName(i, renderer);
+            if(displayInHumanUnderstandableFormat && store.getType(i) == EntryStore.TYPE_DIRECTORY)
+                renderer.character('/');
+        }
+        renderer.newLine();
+    }
+    
+    /**
+     * Renders the record of an entry in the machine readable formats, see {@link #setOutputFormat(String)}.
+     * @param files Number of files below a directory when showing recursive sizes, -1 if none.
+     * @param path Path of the entry; or of its directory, ending with a separator, if the name is taken from the store.
+     * @param store Store holding the name of the entry, null if none.
+     * */
+    private void renderRecord(final OutputRenderer renderer, final byte type, final int access, final String owner, 
+                              final long size, final long mtime, final long files, final String path, 
+                              final EntryStore store, final int i) {
+        if(outputFormat == 'j') {
+            renderer.text("{\"path\":\"").jsonText(path);
+            if(store != null)
+                store.renderJsonName(i, renderer);
+            renderer.text("\",\"type\":\"").text(EntryStore.TYPE_KEYS[type]).text("\",\"size\":");
+            if(size == -1)
+                renderer.text("null");
+            else
+                renderer.decimal(size);
+            if(files != -1)
+                renderer.text(",\"files\":").decimal(files);
+            renderer.text(",\"mtime\":");
+            if(mtime == EntryStore.UNKNOWN_MTIME)
+                renderer.text("null");
+            else
+                renderer.decimal(mtime);
+            renderer.text(",\"permissions\":\"")
+                    .character((access & EntryStore.ACCESS_READ) != 0 ? 'r' : '-')
+                    .character((access & EntryStore.ACCESS_WRITE) != 0 ? 'w' : '-')
+                    .character((access & EntryStore.ACCESS_EXECUTE) != 0 ? 'x' : '-')
+                    .text("\",\"owner\":\"").jsonText(owner).text("\"}").newLine();
+            return;
         }
+        /* Room for the longest encoding of the text (3 bytes per UTF-16 char), so that lengths can be patched */
+        final int pathLength = path.length() + (store != null ? store.getNameLength(i) : 0);
+        renderer.reserve(36 + 3 * (owner.length() + pathLength));
+        final int start = renderer.position();
+        renderer.int32(0).int8(type).int8(access).int64(size).int64(mtime);
+        final int ownerStart = renderer.position();
+        renderer.int16(0).text(owner);
+        renderer.patchInt16(ownerStart, renderer.position() - ownerStart - 2);
+        final int pathStart = renderer.position();
+        renderer.int32(0).text(path);
+        if(store != null)
+            store.renderName(i, renderer);
+        renderer.patchInt32(pathStart, renderer.position() - pathStart - 4);
+        if(displayDirectorySizes)
+            renderer.int64(files);
+        renderer.patchInt32(start, renderer.position() - start - 4);
     }
     
-    private class FileAttributes implements Comparable<FileAttributes> {
+    /**
+     * Renders the start of the line of an entry in long format, up to the name.
+     * */
+    private void renderColumns(final OutputRenderer renderer, final byte type, final int access, final String owner, 
+                               final long size, final long mtime) {
+        renderer.text("  ")
+                .character(type == EntryStore.TYPE_DIRECTORY ? 'd' : (type == EntryStore.TYPE_SYMLINK ? 'l' : '-'))
+                .character((access & EntryStore.ACCESS_READ) != 0 ? 'r' : '-')
+                .character((access & EntryStore.ACCESS_WRITE) != 0 ? 'w' : '-')
+                .character((access & EntryStore.ACCESS_EXECUTE) != 0 ? 'x' : '-').text("  ")
+                .text(owner, 10).text("  ")
+                .text(EntryStore.TYPE_NAMES[type], -4).text("  ")
+                .fileSize(size, displayInHumanUnderstandableFormat, 10).text("  ");
+        if(mtime == EntryStore.UNKNOWN_MTIME)
+            renderer.text("?", 17);
+        else
+            renderer.dateTime(mtime, 17);
+        renderer.text("  ");
+    }
+    
+    /**
+     * Attributes of a file which are loaded lazily, on first use, as far as the
+     * attribute plan of this listing requires them.
+     * */
+    private class FileAttributes implements ListingEntry.Attributes {
         final Path file;
-        final boolean isDirectory, isSymLink;
-        final String owner, type, name;
-        final String permissions;
-        final long size;
-        final FileTime mtime;
+        final String name;
+        /** Whether the unix or POSIX view is read, rather than the basic view */
+        private final boolean posixView;
+        /** Number of filesystem calls made to load the attributes of this entry */
+        int statCalls = 0;
+        /** Recursive size of this directory, shown instead of its own size; null if none */
+        DirectorySizes.Total total = null;
+        
+        /* Lazily loaded attributes, valid once their flag is set */
+        private boolean attrsLoaded = false, tgtAttrsLoaded = false;
+        private BasicFileAttributes attrs, tgtAttrs;
+        /** Error raised when reading the attributes of the file itself, null if none or not read */
+        IOException attrsError = null;
+        private int access = -1;
+        private String owner;
         
         FileAttributes(final Path file) {
-            this.file = file;
-            this.isDirectory = Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS);
-            this.isSymLink = Files.isSymbolicLink(file);
-            
-            char[] perms = new char[4];
-            perms[0] = (this.isDirectory?'d':(this.isSymLink?'l':'-'));
-            perms[1] = (Files.isReadable(file)?'r':'-');
-            perms[2] = (Files.isWritable(file)?'w':'-');
-            perms[3] = (Files.isExecutable(file)?'x':'-');
-            this.permissions = new String(perms);
-            
-            String tmpOwner;
-            try {
-                tmpOwner = Files.getOwner(file, LinkOption.NOFOLLOW_LINKS).getName();
-            } catch(IOException e) {
-                tmpOwner = "?";
-            }
-            this.owner = tmpOwner;
-            
-            if(this.isDirectory)
-                this.type = "dir";
-            else if(this.isSymLink)
-                this.type = "slnk";
-            else if(Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS))
-                this.type = "file";
-            else
-                this.type = "?";
-            
-            long tmpSize;
-            try {
-                tmpSize = Files.size(file);
-            } catch(IOException e) {
-                tmpSize = -1;
+            this.file      = file;
+            this.name      = file.getFileName().toString();
+            this.posixView = plan.needsPosixView;
+        }
+        
+        /**
+         * Attributes already loaded, from a snapshot.
+         * @param attrs Attributes of the file itself, null if they could not be read.
+         * @param tgtAttrs Attributes of the target of a symbolic link, null if they could not be read.
+         * */
+        FileAttributes(final Path file, final UnixAttributes attrs, final UnixAttributes tgtAttrs) {
+            this(file);
+            this.attrsLoaded    = true;
+            this.attrs          = attrs;
+            this.tgtAttrsLoaded = true;
+            this.tgtAttrs       = (attrs != null && attrs.isSymbolicLink() ? tgtAttrs : attrs);
+        }
+        
+        private void countStatCall() {
+            if(statCalls++ == 0)
+                loadedEntryCount.increment();
+            statCallCount.increment();
+        }
+        
+        /**
+         * @return Attributes of the file itself (links not followed), read in one bulk call: unix or 
+         * POSIX view if the plan requires it and it is supported, basic view otherwise.
+         * null if they cannot be read.
+         * */
+        private BasicFileAttributes getAttributes() {
+            if(!attrsLoaded) {
+                attrsLoaded = true;
+                countStatCall();
+                final ListingStats.Phase previous = enter(ListingStats.Phase.STAT);
+                try {
+                    attrs = readAttributes(file, (posixView ? getAttributeView(file) : "basic"), LinkOption.NOFOLLOW_LINKS);
+                } catch(IOException e) {
+                    attrs = null;
+                    attrsError = e;
+                } finally {
+                    exit(previous);
+                }
             }
-            this.size = tmpSize;
-            
-            FileTime tmpMTime;
-            try {
-                tmpMTime = Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS);
-            } catch(IOException e) {
-                tmpMTime = null;
+            return attrs;
+        }
+        
+        /**
+         * @return Attributes of the target for a symbolic link, as access permissions and size of a link are 
+         * those of its target, or the attributes of the file itself otherwise. null if they cannot be read.
+         * */
+        private BasicFileAttributes getTargetAttributes() {
+            if(!tgtAttrsLoaded) {
+                tgtAttrsLoaded = true;
+                final BasicFileAttributes attrs = getAttributes();
+                if(attrs != null && attrs.isSymbolicLink()) {
+                    countStatCall();
+                    final ListingStats.Phase previous = enter(ListingStats.Phase.STAT);
+                    try {
+                        tgtAttrs = readAttributes(file, (attrs instanceof UnixAttributes ? "unix" : 
+                                                        (attrs instanceof PosixFileAttributes ? "posix" : "basic")));
+                    } catch(IOException e) {
+                        tgtAttrs = null;
+                    } finally {
+                        exit(previous);
+                    }
+                } else {
+                    tgtAttrs = attrs;
+                }
             }
-            this.mtime = tmpMTime;
-            
-            this.name = file.getFileName().toString();
+            return tgtAttrs;
+        }
+        
+        boolean isDirectory() {
+            final BasicFileAttributes attrs = getAttributes();
+            return (attrs != null && attrs.isDirectory());
+        }
+        
+        boolean isSymLink() {
+            final BasicFileAttributes attrs = getAttributes();
+            return (attrs != null && attrs.isSymbolicLink());
+        }
+        
+        @Override
+        public byte getTypeCode() {
+            final BasicFileAttributes attrs = getAttributes();
+            if(attrs == null)
+                return EntryStore.TYPE_UNKNOWN;
+            if(attrs.isDirectory())
+                return EntryStore.TYPE_DIRECTORY;
+            if(attrs.isSymbolicLink())
+                return EntryStore.TYPE_SYMLINK;
+            if(attrs.isRegularFile())
+                return EntryStore.TYPE_FILE;
+            return EntryStore.TYPE_UNKNOWN;
+        }
+        
+        @Override
+        public long getSize() {
+            if(total != null)
+                return total.size;
+            final BasicFileAttributes tgtAttrs = getTargetAttributes();
+            return (tgtAttrs == null ? -1 : tgtAttrs.size());
+        }
+        
+        @Override
+        public FileTime getMTime() {
+            final BasicFileAttributes attrs = getAttributes();
+            return (attrs == null ? null : attrs.lastModifiedTime());
+        }
+        
+        /**
+         * @return Modification time in milliseconds since the epoch, {@link EntryStore#UNKNOWN_MTIME} if unknown.
+         * */
+        long getMTimeMillis() {
+            final FileTime mtime = getMTime();
+            return (mtime == null ? EntryStore.UNKNOWN_MTIME : mtime.toMillis());
+        }
+        
+        /**
+         * @return Nanoseconds within the millisecond of the modification time.
+         * */
+        int getMTimeNanos() {
+            final FileTime mtime = getMTime();
+            return (mtime == null ? 0 : mtime.toInstant().getNano() % 1_000_000);
         }
         
+        /**
+         * @return Access permission bits of the current user. Derived from the mode bits already read when the 
+         * current user owns the file, is not the superuser and the file system may neither be mounted read-only
+         * nor use ACLs: the owner class of the mode then decides alone, the only further call being access(2) 
+         * for execution of the regular files the mode allows it for (mounted <code>noexec</code>).
+         * Checked by the system (access(2)) for each access otherwise, as group membership, ACLs, read-only 
+         * mounts and the superuser grant or deny access too.
+         * */
         @Override
-        public int compareTo(final FileAttributes that) {
-            int c;
-            switch(sortBy) {
-                case 'n': c = this.name.compareTo(that.name); return sortInAsc ? c : -c;
-                case 's': c = Long.valueOf(this.size - that.size).intValue(); return sortInAsc ? c : -c;
-                case 'm': c = ((this.mtime==null || that.mtime==null)? 0 : this.mtime.compareTo(that.mtime)); return sortInAsc ? c : -c;
-                case 't': c = this.type.compareTo(that.type); return sortInAsc ? c : -c;
-                default: throw new AssertionError("Should not get here: Invalid sortBy value: " + sortBy);
+        public int getAccessBits() {
+            if(access < 0) {
+                final BasicFileAttributes attrs = getTargetAttributes();
+                access = (attrs instanceof UnixAttributes ? getOwnerAccessBits((UnixAttributes)attrs) : -1);
+                if(access < 0) {
+                    final ListingStats.Phase previous = enter(ListingStats.Phase.STAT);
+                    access = 0;
+                    countStatCall(); if(Files.isReadable(file))   access |= EntryStore.ACCESS_READ;
+                    countStatCall(); if(Files.isWritable(file))   access |= EntryStore.ACCESS_WRITE;
+                    countStatCall(); if(Files.isExecutable(file)) access |= EntryStore.ACCESS_EXECUTE;
+                    exit(previous);
+                }
+            }
+            return access;
+        }
+        
+        /**
+         * @return Access permission bits of the owner of the file, -1 if the mode bits cannot decide.
+         * @param attrs Attributes of the file, links followed.
+         * */
+        private int getOwnerAccessBits(final UnixAttributes attrs) {
+            if(CURRENT_UID < 0 || CURRENT_UID == SUPER_USER_UID || attrs.uid != CURRENT_UID || attrs.dev < 0)
+                return -1;
+            final Boolean modeDecides = modeDecidesAccess.computeIfAbsent(attrs.dev, dev -> {
+                countStatCall();
+                final ListingStats.Phase previous = enter(ListingStats.Phase.STAT);
+                try {
+                    final FileStore store = Files.getFileStore(file);
+                    return !store.isReadOnly() && !store.supportsFileAttributeView(AclFileAttributeView.class) 
+                           && !ACL_FILE_SYSTEMS.contains(store.type());
+                } catch(IOException e) {
+                    return false;
+                } finally {
+                    exit(previous);
+                }
+            });
+            if(!modeDecides)
+                return -1;
+            int access = 0;
+            if((attrs.mode & 0400) != 0) access |= EntryStore.ACCESS_READ;
+            if((attrs.mode & 0200) != 0) access |= EntryStore.ACCESS_WRITE;
+            if((attrs.mode & 0100) != 0) {
+                if(attrs.isRegularFile()) {
+                    final ListingStats.Phase previous = enter(ListingStats.Phase.STAT);
+                    countStatCall(); if(Files.isExecutable(file)) access |= EntryStore.ACCESS_EXECUTE;
+                    exit(previous);
+                } else {
+                    access |= EntryStore.ACCESS_EXECUTE;
+                }
             }
+            return access;
         }
         
         @Override
-        public String toString() {
+        public String getOwner() {
+            if(owner == null) {
+                final BasicFileAttributes attrs = getAttributes();
+                try {
+                    if(attrs instanceof UnixAttributes) {
+                        final int uid = ((UnixAttributes)attrs).uid;
+                        owner = getKnownOwner(uid);
+                        if(owner == null) {
+                            countStatCall();
+                            owner = lookUpOwner(uid, file);
+                        }
+                    } else if(attrs instanceof PosixFileAttributes) {
+                        owner = ((PosixFileAttributes)attrs).owner().getName();
+                    } else {
+                        countStatCall();
+                        final ListingStats.Phase previous = enter(ListingStats.Phase.OWNER);
+                        try {
+                            owner = Files.getOwner(file, LinkOption.NOFOLLOW_LINKS).getName();
+                        } finally {
+                            exit(previous);
+                        }
+                    }
+                } catch(IOException e) {
+                    owner = "?";
+                }
+            }
+            return owner;
+        }
+        
+        /**
+         * Renders the line of this entry, same as {@link List#renderEntry(EntryStore, int, OutputRenderer, String)}.
+         * */
+        void render(final OutputRenderer renderer) {
+            render(renderer, name);
+        }
+        
+        /**
+         * Same as {@link #render(OutputRenderer)}, showing the specified name instead of the file name in text.
+         * */
+        void render(final OutputRenderer renderer, final String shownName) {
+            if(outputFormat != 't') {
+                renderRecord(renderer, getTypeCode(), getAccessBits(), getOwner(), getSize(), getMTimeMillis(), 
+                             (total != null ? total.files : -1L), display(file), null, 0);
+                return;
+            }
             if(displayInLongFormat)
-                return String.format("%s  %10s  %-4s  %10s  %17s  %s",
-                                        permissions,
-                                        owner,
-                                        type,
-                                        getFileSize(),
-                                        getModTime(),
-                                        getFileName());
+                renderColumns(renderer, getTypeCode(), getAccessBits(), getOwner(), getSize(), getMTimeMillis());
             else
-                return getFileName();
+                renderer.text("  ");
+            renderer.text(getFileName(shownName)).newLine();
         }
         
-        private String getModTime() {
-            return ((mtime==null) ? "?" : String.format("%tT-%<tD", mtime.toMillis()));
+        String getFileName() {
+            return getFileName(name);
         }
         
-        private String getFileName() {
+        /**
+         * @param name Name of the file as shown, e.g. its path from the listed directory.
+         * */
+        private String getFileName(final String name) {
             if(displayInHumanUnderstandableFormat) {
-                if(isDirectory)
+                if(isDirectory())
                     return name  + "/";
-                if(isSymLink) {
+                if(isSymLink()) {
                     try {
                         Path tgtRaw = Files.readSymbolicLink(file);
                         Path tgtResolved = file.resolveSibling(tgtRaw).normalize();
@@ -243,22 +1579,249 @@ public class List {
             }
             return name;
         }
+    }
+    
+    /**
+     * Query plan of a listing: which file attributes the output columns and the sort key need.
+     * <p> Attributes not in the plan are never loaded, so a short listing sorted by name 
+     * needs no filesystem call per entry beyond reading the directory.
+     * */
+    private static final class AttributePlan {
+        /* Output columns and sort key requirements */
+        final boolean needsType, needsSize, needsMTime, needsPermissions, needsOwner;
+        /** Whether modification times are needed to the nanosecond, i.e. for sorting */
+        final boolean needsMTimeNanos;
+        /** Whether the POSIX view is worth reading, i.e. for the owner (permissions are checked by access) */
+        final boolean needsPosixView;
         
-        private final double KB = Math.pow(1024.0, 1.0);
-        private final double MB = Math.pow(1024.0, 2.0);
-        private final double GB = Math.pow(1024.0, 3.0);
+        /**
+         * @param retained Whether the attributes are kept beyond the listing, by the snapshot cache which
+         * holds those of the unix view.
+         * */
+        AttributePlan(final char sortBy, final boolean displayInLongFormat, final boolean displayInHumanUnderstandableFormat, 
+                      final boolean retained) {
+            this.needsType        = displayInLongFormat || displayInHumanUnderstandableFormat || sortBy == 't';
+            this.needsSize        = displayInLongFormat || sortBy == 's';
+            this.needsMTime       = displayInLongFormat || sortBy == 'm';
+            this.needsMTimeNanos  = sortBy == 'm';
+            this.needsPermissions = displayInLongFormat;
+            this.needsOwner       = displayInLongFormat;
+            this.needsPosixView   = needsOwner || retained;
+        }
         
-        private String getFileSize() {
-            if(size == -1) return "?";
-            if(displayInHumanUnderstandableFormat) {
-                final double s  = Long.valueOf(size).doubleValue();
-                if(s < KB)          return String.format("%8d B", size);
-                else if(s < MB)     return String.format("%4.2f K", s/KB);
-                else if(s < GB)     return String.format("%4.2f M", s/MB);
-                else                return String.format("%4.2f G", s/GB);
+        @Override
+        public String toString() {
+            return String.format("[type=%b, size=%b, mtime=%b, permissions=%b, owner=%b]", 
+                                    needsType, needsSize, needsMTime, needsPermissions, needsOwner);
+        }
+    }
+    
+    /**
+     * @return Name of the view to read owners and permissions from on the file system of the specified file:
+     * unix (with numeric ids), posix or basic, as supported.
+     * Decided once per file system, as entries of a listing normally live on only a few of them.
+     * */
+    private String getAttributeView(final Path file) {
+        return ATTRIBUTE_VIEWS.computeIfAbsent(file.getFileSystem(), fs -> {
+            final Set<String> views = fs.supportedFileAttributeViews();
+            return (views.contains("unix") ? "unix" : (views.contains("posix") ? "posix" : "basic"));
+        });
+    }
+    
+    /**
+     * Reads the attributes of a file in one call.
+     * @param view unix, posix or basic.
+     * */
+    private BasicFileAttributes readAttributes(final Path file, final String view, final LinkOption... options) throws IOException {
+        switch(view) {
+            case "unix":  return new UnixAttributes(file, Files.readAttributes(file, UNIX_ATTRIBUTES, options));
+            case "posix": return Files.readAttributes(file, PosixFileAttributes.class, options);
+            default:      return Files.readAttributes(file, BasicFileAttributes.class, options);
+        }
+    }
+    
+    /**
+     * @return Name of the user if known without any filesystem call: cached, or the user id itself if showing 
+     * numeric ids; null otherwise.
+     * */
+    private String getKnownOwner(final int uid) {
+        return (displayNumericIds ? Integer.toString(uid) : OWNER_CACHE.get(uid));
+    }
+    
+    /**
+     * @return Name of the user, looked up through a file it owns and cached for its user id. The call is
+     * counted by the caller.
+     * */
+    private String lookUpOwner(final int uid, final Path file) throws IOException {
+        final ListingStats.Phase previous = enter(ListingStats.Phase.OWNER);
+        try {
+            final String name = Files.getOwner(file, LinkOption.NOFOLLOW_LINKS).getName();
+            OWNER_CACHE.put(uid, name);
+            return name;
+        } finally {
+            exit(previous);
+        }
+    }
+    
+    /**
+     * @return Attributes of a file held in a snapshot, null if they could not be read.
+     * */
+    private UnixAttributes toUnixAttributes(final Path file, final SnapshotCache.Attributes attrs) {
+        return (attrs.kind == 0 ? null : new UnixAttributes(file, attrs));
+    }
+    
+    /**
+     * @return Attributes of a file to be held in a snapshot: all from those of the unix view, 
+     * without permissions and ids from the others.
+     * @param attrs Attributes of the file, null if they could not be read.
+     * */
+    private static SnapshotCache.Attributes toSnapshotAttributes(final BasicFileAttributes attrs) {
+        final SnapshotCache.Attributes snapshot = new SnapshotCache.Attributes();
+        if(attrs != null && !(attrs instanceof UnixAttributes)) {
+            final java.time.Instant mtime = attrs.lastModifiedTime().toInstant();
+            snapshot.kind        = SnapshotCache.KIND_PRESENT
+                                 | (attrs.isRegularFile()  ? SnapshotCache.KIND_REGULAR   : 0)
+                                 | (attrs.isDirectory()    ? SnapshotCache.KIND_DIRECTORY : 0)
+                                 | (attrs.isSymbolicLink() ? SnapshotCache.KIND_SYMLINK   : 0)
+                                 | (attrs.isOther()        ? SnapshotCache.KIND_OTHER     : 0);
+            snapshot.size        = attrs.size();
+            snapshot.mtimeSecond = mtime.getEpochSecond();
+            snapshot.mtimeNano   = mtime.getNano();
+        } else if(attrs != null) {
+            final UnixAttributes unixAttrs = (UnixAttributes)attrs;
+            final java.time.Instant mtime = unixAttrs.mtime.toInstant();
+            snapshot.kind        = SnapshotCache.KIND_PRESENT | unixAttrs.kind;
+            snapshot.mode        = unixAttrs.mode;
+            snapshot.uid         = unixAttrs.uid;
+            snapshot.gid         = unixAttrs.gid;
+            snapshot.size        = unixAttrs.size;
+            snapshot.mtimeSecond = mtime.getEpochSecond();
+            snapshot.mtimeNano   = mtime.getNano();
+        }
+        return snapshot;
+    }
+    
+    /**
+     * POSIX attributes read from the unix view, which provides the numeric ids of the owner and group
+     * rather than their names. Names are looked up only when asked for.
+     * */
+    private final class UnixAttributes implements PosixFileAttributes {
+        private final Path file;
+        final int uid, gid, mode;
+        /** Kind flags, see {@link SnapshotCache#KIND_REGULAR} */
+        final int kind;
+        final long size;
+        final FileTime mtime;
+        /* Not held in snapshots, null or -1 then */
+        private final FileTime atime, ctime;
+        private final Object fileKey;
+        /** Id of the device (file system) of the file */
+        final long dev;
+        
+        UnixAttributes(final Path file, final Map<String, Object> attrs) {
+            this.file    = file;
+            this.uid     = (Integer)attrs.get("uid");
+            this.gid     = (Integer)attrs.get("gid");
+            this.mode    = (Integer)attrs.get("mode");
+            this.kind    = ((Boolean)attrs.get("isRegularFile")  ? SnapshotCache.KIND_REGULAR   : 0)
+                         | ((Boolean)attrs.get("isDirectory")    ? SnapshotCache.KIND_DIRECTORY : 0)
+                         | ((Boolean)attrs.get("isSymbolicLink") ? SnapshotCache.KIND_SYMLINK   : 0)
+                         | ((Boolean)attrs.get("isOther")        ? SnapshotCache.KIND_OTHER     : 0);
+            this.size    = (Long)attrs.get("size");
+            this.mtime   = (FileTime)attrs.get("lastModifiedTime");
+            this.atime   = (FileTime)attrs.get("lastAccessTime");
+            this.ctime   = (FileTime)attrs.get("creationTime");
+            this.fileKey = attrs.get("fileKey");
+            this.dev     = (Long)attrs.get("dev");
+        }
+        
+        UnixAttributes(final Path file, final SnapshotCache.Attributes attrs) {
+            this.file    = file;
+            this.uid     = attrs.uid;
+            this.gid     = attrs.gid;
+            this.mode    = attrs.mode;
+            this.kind    = attrs.kind & ~SnapshotCache.KIND_PRESENT;
+            this.size    = attrs.size;
+            this.mtime   = FileTime.from(java.time.Instant.ofEpochSecond(attrs.mtimeSecond, attrs.mtimeNano));
+            this.atime   = null;
+            this.ctime   = null;
+            this.fileKey = null;
+            this.dev     = -1L;
+        }
+        
+        /**
+         * Not used by the listing, which looks names up through {@link FileAttributes#getOwner()} counting the call.
+         * */
+        @Override
+        public UserPrincipal owner() {
+            String name = getKnownOwner(uid);
+            try {
+                if(name == null)
+                    name = lookUpOwner(uid, file);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            final String owner = name;
+            return () -> owner;
+        }
+        
+        /**
+         * @return Group named after its numeric id, group names are never shown.
+         * */
+        @Override
+        public GroupPrincipal group() {
+            final String name = Integer.toString(gid);
+            return () -> name;
+        }
+        
+        @Override
+        public Set<PosixFilePermission> permissions() {
+            final Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+            /* PosixFilePermission constants are declared from owner read (0400) down to others execute (0001) */
+            for(PosixFilePermission permission : PosixFilePermission.values()) {
+                if((mode & (0400 >> permission.ordinal())) != 0)
+                    permissions.add(permission);
             }
-            return String.format("%8d", size);
+            return permissions;
         }
+        
+        @Override public FileTime lastModifiedTime() { return mtime; }
+        @Override public FileTime lastAccessTime()   { return atime; }
+        @Override public FileTime creationTime()     { return ctime; }
+        @Override public boolean isRegularFile()     { return (kind & SnapshotCache.KIND_REGULAR) != 0; }
+        @Override public boolean isDirectory()       { return (kind & SnapshotCache.KIND_DIRECTORY) != 0; }
+        @Override public boolean isSymbolicLink()    { return (kind & SnapshotCache.KIND_SYMLINK) != 0; }
+        @Override public boolean isOther()           { return (kind & SnapshotCache.KIND_OTHER) != 0; }
+        @Override public long size()                 { return size; }
+        @Override public Object fileKey()            { return fileKey; }
+    }
+    
+    /**
+     * @return Total number of filesystem calls made to load file attributes so far.
+     * */
+    public long getStatCallCount() {
+        return statCallCount.sum();
+    }
+    
+    /**
+     * @return Total number of entries whose attributes have been loaded so far.
+     * */
+    public long getLoadedEntryCount() {
+        return loadedEntryCount.sum();
+    }
+    
+    /**
+     * @return Number of directories listed from the snapshot cache so far.
+     * */
+    public long getCacheHitCount() {
+        return (snapshotCache == null ? 0L : snapshotCache.getHitCount());
+    }
+    
+    /**
+     * @return Number of directories read as not in the snapshot cache, or modified since, so far.
+     * */
+    public long getCacheMissCount() {
+        return (snapshotCache == null ? 0L : snapshotCache.getMissCount());
     }
     
     /**
@@ -276,6 +1839,13 @@ public class List {
         System.out.println("    showRecursively = " + showRecursively);
         System.out.println("    sortBy = " + sortBy);
         System.out.println("    sortInAsc = " + sortInAsc);
+        System.out.println("    plan = " + plan);
+        System.out.println("    parallelism = " + parallelism);
+        System.out.println("    sortMemoryLimit = " + sortMemoryLimit);
+        System.out.println("    displayNumericIds = " + displayNumericIds);
+        System.out.println("    snapshotCache = " + (snapshotCache == null ? null : snapshotCache.getFile()));
+        System.out.println("    watching = " + (watcher != null));
+        System.out.println("    statsFormat = " + statsFormat);
         System.out.println("------------------------\n");
     }
 }
@@ -0,0 +1,123 @@
+package linux.util.fs;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Entry of a listing, as returned by {@link List#stream()}.
+ * <p> Attributes are read from the file system on first use only, then kept: an entry whose
+ * attributes are never asked for costs nothing beyond reading its directory. Once read, an
+ * attribute never changes, even if the file does.
+ * <p> Thread safe.
+ * */
+public final class ListingEntry {
+    /**
+     * Types of file.
+     * */
+    public enum Type {
+        /** Type could not be read, or is none of the others (e.g. device, socket) */
+        UNKNOWN,
+        DIRECTORY,
+        FILE,
+        SYMLINK
+    }
+
+    /* Same order as the type codes of EntryStore */
+    private static final Type[] TYPES = { Type.UNKNOWN, Type.DIRECTORY, Type.FILE, Type.SYMLINK };
+
+    /**
+     * Source of the attributes of an entry, loaded lazily.
+     * */
+    interface Attributes {
+        /** @return Type code, see {@link EntryStore#TYPE_UNKNOWN} */
+        byte getTypeCode();
+        long getSize();
+        FileTime getMTime();
+        /** @return Access permission bits of the current user, see {@link EntryStore#ACCESS_READ} */
+        int getAccessBits();
+        String getOwner();
+    }
+
+    private final Path path;
+    private final String name;
+    private final Attributes attributes;
+
+    ListingEntry(final Path path, final String name, final Attributes attributes) {
+        this.path       = path;
+        this.name       = name;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return Path of the file, the listed directory resolved against its name.
+     * */
+    public Path getPath() {
+        return path;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Type of the file itself, symbolic links not followed.
+     * */
+    public synchronized Type getType() {
+        return TYPES[attributes.getTypeCode()];
+    }
+
+    public boolean isDirectory() {
+        return getType() == Type.DIRECTORY;
+    }
+
+    public boolean isSymbolicLink() {
+        return getType() == Type.SYMLINK;
+    }
+
+    /**
+     * @return Size in bytes, of the target for a symbolic link; -1 if unknown.
+     * */
+    public synchronized long getSize() {
+        return attributes.getSize();
+    }
+
+    /**
+     * @return Modification time, null if unknown.
+     * */
+    public synchronized FileTime getLastModifiedTime() {
+        return attributes.getMTime();
+    }
+
+    /**
+     * @return Whether the current user can read the file, the target for a symbolic link.
+     * */
+    public synchronized boolean isReadable() {
+        return (attributes.getAccessBits() & EntryStore.ACCESS_READ) != 0;
+    }
+
+    /**
+     * @return Whether the current user can write the file, the target for a symbolic link.
+     * */
+    public synchronized boolean isWritable() {
+        return (attributes.getAccessBits() & EntryStore.ACCESS_WRITE) != 0;
+    }
+
+    /**
+     * @return Whether the current user can execute the file, the target for a symbolic link.
+     * */
+    public synchronized boolean isExecutable() {
+        return (attributes.getAccessBits() & EntryStore.ACCESS_EXECUTE) != 0;
+    }
+
+    /**
+     * @return Name of the owner, of the file itself; "?" if unknown.
+     * */
+    public synchronized String getOwner() {
+        return attributes.getOwner();
+    }
+
+    @Override
+    public String toString() {
+        return path.toString();
+    }
+}
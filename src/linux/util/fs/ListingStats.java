@@ -0,0 +1,289 @@
+package linux.util.fs;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Instrumentation of a listing: time spent in each phase, directories and entries read, peak
+ * number of entries held in memory.
+ * <p> Each thread has a clock of its own, switched from phase to phase by the listing; phase times
+ * are summed over all threads, so they may add up to more than the wall time when listing in parallel.
+ * <p> Each directory listed is also recorded as a JDK Flight Recorder event with the time of each
+ * phase, and the whole listing as one more event, to be correlated with GC and I/O in recordings.
+ * <p> Thread safe.
+ * */
+final class ListingStats {
+    /**
+     * Phases of a listing.
+     * */
+    enum Phase {
+        /** Reading the entries of directories */
+        READDIR("readdir"),
+        /** Reading the attributes of entries */
+        STAT("stat"),
+        /** Looking owner names up */
+        OWNER("owner"),
+        /** Sorting entries */
+        SORT("sort"),
+        /** Rendering and writing the output */
+        OUTPUT("output");
+
+        final String label;
+
+        Phase(final String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Time spent by one thread in each phase.
+     * */
+    private static final class Clock {
+        final long[] nanos = new long[PHASES.length];
+        Phase current = null;
+        long since = System.nanoTime();
+
+        /**
+         * @return Phase left, null if none.
+         * */
+        Phase switchTo(final Phase phase) {
+            final long now = System.nanoTime();
+            if(current != null)
+                nanos[current.ordinal()] += now - since;
+            final Phase previous = current;
+            current = phase;
+            since = now;
+            return previous;
+        }
+    }
+
+    @Name("linux.util.fs.Directory")
+    @Label("Directory Listed")
+    @Category({ "List", "Directory" })
+    @Description("Listing of one directory, with the time spent in each phase")
+    static final class DirectoryEvent extends jdk.jfr.Event {
+        @Label("Path") String path;
+        @Label("Entries") long entries;
+        @Label("Read Directory") @Timespan long readdir;
+        @Label("Read Attributes") @Timespan long stat;
+        @Label("Look Owners Up") @Timespan long owner;
+        @Label("Sort") @Timespan long sort;
+        @Label("Output") @Timespan long output;
+    }
+
+    @Name("linux.util.fs.Listing")
+    @Label("Listing")
+    @Category({ "List" })
+    @Description("Whole listing, with the time spent in each phase summed over all threads")
+    static final class ListingEvent extends jdk.jfr.Event {
+        @Label("Directories") long directories;
+        @Label("Entries") long entries;
+        @Label("Attribute Calls") long attributeCalls;
+        @Label("Peak Entries Held") long peakEntriesHeld;
+        @Label("Read Directory") @Timespan long readdir;
+        @Label("Read Attributes") @Timespan long stat;
+        @Label("Look Owners Up") @Timespan long owner;
+        @Label("Sort") @Timespan long sort;
+        @Label("Output") @Timespan long output;
+    }
+
+    /**
+     * Mark of the start of the listing of a directory.
+     * */
+    static final class DirectoryMark {
+        private final DirectoryEvent event = new DirectoryEvent();
+        private final Clock clock;
+        private final long[] nanos;
+        private long entries = 0L;
+
+        private DirectoryMark(final Clock clock) {
+            this.clock = clock;
+            this.nanos = clock.nanos.clone();
+            event.begin();
+        }
+    }
+
+    private final ThreadLocal<Clock> clocks;
+    private final ConcurrentLinkedQueue<Clock> allClocks = new ConcurrentLinkedQueue<>();
+    private final LongAdder directories = new LongAdder(), entries = new LongAdder();
+    private final AtomicLong entriesHeld = new AtomicLong(), peakEntriesHeld = new AtomicLong();
+    private final ListingEvent event = new ListingEvent();
+    private long startNanos, endNanos;
+
+    ListingStats() {
+        this.clocks = ThreadLocal.withInitial(() -> {
+            final Clock clock = new Clock();
+            allClocks.add(clock);
+            return clock;
+        });
+    }
+
+    void start() {
+        event.begin();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends the listing: the time of the phases still running in each thread is counted up to now.
+     * @param attributeCalls Number of filesystem calls made to load attributes.
+     * */
+    void end(final long attributeCalls) {
+        endNanos = System.nanoTime();
+        for(Clock clock : allClocks) {
+            synchronized(clock) {
+                clock.switchTo(clock.current);
+            }
+        }
+        event.end();
+        if(event.shouldCommit()) {
+            final long[] nanos = getPhaseNanos();
+            event.directories     = directories.sum();
+            event.entries         = entries.sum();
+            event.attributeCalls  = attributeCalls;
+            event.peakEntriesHeld = peakEntriesHeld.get();
+            event.readdir         = nanos[Phase.READDIR.ordinal()];
+            event.stat            = nanos[Phase.STAT.ordinal()];
+            event.owner           = nanos[Phase.OWNER.ordinal()];
+            event.sort            = nanos[Phase.SORT.ordinal()];
+            event.output          = nanos[Phase.OUTPUT.ordinal()];
+            event.commit();
+        }
+    }
+
+    /**
+     * Switches the clock of the current thread to the specified phase.
+     * @return Phase left, to be switched back to with {@link #exit(Phase)}; null if none.
+     * */
+    Phase enter(final Phase phase) {
+        final Clock clock = clocks.get();
+        synchronized(clock) {
+            return clock.switchTo(phase);
+        }
+    }
+
+    /**
+     * Switches the clock of the current thread back to the phase left.
+     * */
+    void exit(final Phase previous) {
+        enter(previous);
+    }
+
+    /**
+     * Starts the listing of a directory.
+     * */
+    DirectoryMark beginDirectory() {
+        directories.increment();
+        final Clock clock = clocks.get();
+        synchronized(clock) {
+            clock.switchTo(clock.current);
+            return new DirectoryMark(clock);
+        }
+    }
+
+    /**
+     * Counts an entry read from the directory being listed.
+     * */
+    void countEntry(final DirectoryMark mark) {
+        mark.entries++;
+        entries.increment();
+    }
+
+    /**
+     * Ends the listing of a directory, recording its event with the time spent in each phase since it began.
+     * */
+    void endDirectory(final DirectoryMark mark, final Path dir) {
+        final DirectoryEvent event = mark.event;
+        event.end();
+        if(!event.shouldCommit())
+            return;
+        synchronized(mark.clock) {
+            mark.clock.switchTo(mark.clock.current);
+            final long[] nanos = mark.clock.nanos;
+            event.readdir = nanos[Phase.READDIR.ordinal()] - mark.nanos[Phase.READDIR.ordinal()];
+            event.stat    = nanos[Phase.STAT.ordinal()]    - mark.nanos[Phase.STAT.ordinal()];
+            event.owner   = nanos[Phase.OWNER.ordinal()]   - mark.nanos[Phase.OWNER.ordinal()];
+            event.sort    = nanos[Phase.SORT.ordinal()]    - mark.nanos[Phase.SORT.ordinal()];
+            event.output  = nanos[Phase.OUTPUT.ordinal()]  - mark.nanos[Phase.OUTPUT.ordinal()];
+        }
+        event.path    = dir.toString();
+        event.entries = mark.entries;
+        event.commit();
+    }
+
+    /**
+     * Counts entries taken into (positive) or released from (negative) memory.
+     * */
+    void holdEntries(final long delta) {
+        final long held = entriesHeld.addAndGet(delta);
+        if(delta > 0)
+            peakEntriesHeld.accumulateAndGet(held, Math::max);
+    }
+
+    /**
+     * @return Time spent in each phase by all threads, in nanoseconds, indexed by phase ordinal.
+     * */
+    long[] getPhaseNanos() {
+        final long[] nanos = new long[PHASES.length];
+        for(Clock clock : allClocks) {
+            synchronized(clock) {
+                for(int i = 0; i < nanos.length; i++)
+                    nanos[i] += clock.nanos[i];
+            }
+        }
+        return nanos;
+    }
+
+    /**
+     * Prints the statistics of the ended listing as text.
+     * */
+    void print(final PrintStream stream, final long attributeCalls) {
+        final long wallNanos = endNanos - startNanos, entries = this.entries.sum();
+        final long[] nanos = getPhaseNanos();
+        stream.printf("Stats: %n");
+        stream.printf("  Wall time:          %.3f ms %n", wallNanos / 1e6);
+        stream.printf("  Directories:        %d %n", directories.sum());
+        stream.printf("  Entries:            %d (%.0f per second) %n", entries, perSecond(entries, wallNanos));
+        stream.printf("  Attribute calls:    %d %n", attributeCalls);
+        stream.printf("  Peak entries held:  %d %n", peakEntriesHeld.get());
+        stream.printf("  Phases (ms, all threads): %n");
+        for(Phase phase : PHASES)
+            stream.printf("    %-8s %12.3f %n", phase.label, nanos[phase.ordinal()] / 1e6);
+    }
+
+    /**
+     * Prints the statistics of the ended listing as one JSON object, on one line.
+     * */
+    void printJson(final PrintStream stream, final long attributeCalls) {
+        final long wallNanos = endNanos - startNanos, entries = this.entries.sum();
+        final long[] nanos = getPhaseNanos();
+        final StringBuilder json = new StringBuilder(256);
+        json.append("{\"wallNanos\":").append(wallNanos)
+            .append(",\"directories\":").append(directories.sum())
+            .append(",\"entries\":").append(entries)
+            .append(",\"entriesPerSecond\":").append(Math.round(perSecond(entries, wallNanos)))
+            .append(",\"attributeCalls\":").append(attributeCalls)
+            .append(",\"peakEntriesHeld\":").append(peakEntriesHeld.get())
+            .append(",\"phaseNanos\":{");
+        for(Phase phase : PHASES) {
+            if(phase.ordinal() > 0)
+                json.append(',');
+            json.append('"').append(phase.label).append("\":").append(nanos[phase.ordinal()]);
+        }
+        stream.println(json.append("}}"));
+    }
+
+    private static double perSecond(final long count, final long nanos) {
+        return (nanos <= 0 ? 0.0 : count * 1e9 / nanos);
+    }
+}
@@ -0,0 +1,300 @@
+package linux.util.fs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Keeps the listing of directories up to date once shown, through a {@link WatchService}: only the
+ * entries added (+), removed (-) or modified (~) since are shown, under the header of their directory.
+ * An entry is modified only if its rendered line changed, so that changes the listing does not show
+ * (e.g. of the modification time within the same second) are not shown either.
+ * <p> The entries of each directory are held sorted by name, as recorded while the directory was
+ * listed. On each event only the entry it names is read again; a directory whose events were lost
+ * (overflow) is read again as a whole and compared with what is held. Changes found together come out
+ * in name order, whatever the order of the listing.
+ * <p> Directories are registered and recorded concurrently while listed, the changes are then
+ * processed by the single thread calling {@link #run(OutputRenderer)}.
+ * */
+final class ListingWatcher implements Closeable {
+    /**
+     * Entry of a directory as last seen: its rendered line.
+     * */
+    static final class Entry {
+        final String name;
+        final boolean directory;
+        /** Whether the entry is shown, i.e. not hidden or hidden files shown */
+        final boolean shown;
+        private final byte[] line;
+
+        /**
+         * @param line Rendered line of the entry, starting with two spaces; that of a symbolic link shows its target.
+         * */
+        Entry(final String name, final boolean directory, final boolean shown, final byte[] line) {
+            this.name      = name;
+            this.directory = directory;
+            this.shown     = shown;
+            this.line      = line;
+        }
+
+        /**
+         * @return Whether the entry is shown differently, its line being all that is shown of it.
+         * */
+        boolean isModifiedSince(final Entry before) {
+            return shown != before.shown || !Arrays.equals(line, before.line);
+        }
+    }
+
+    private final WatchService service;
+    private final boolean recursive;
+    /** Reads an entry again, null if it does not exist anymore */
+    private final Function<Path, Entry> reader;
+    /** Reads all entries of a directory again, null if it cannot be read */
+    private final Function<Path, java.util.List<Entry>> lister;
+
+    private final ConcurrentHashMap<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Path, TreeMap<String, Entry>> views = new ConcurrentHashMap<>();
+    /** Paths of the watched directories as shown in their headers */
+    private final ConcurrentHashMap<Path, String> shownPaths = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IOException> failures = new ConcurrentHashMap<>();
+    /** Directory whose header was shown last */
+    private Path shownDirectory = null;
+
+    /**
+     * @param recursive Whether subdirectories added are watched as well.
+     * */
+    ListingWatcher(final WatchService service, final boolean recursive, final Function<Path, Entry> reader,
+                   final Function<Path, java.util.List<Entry>> lister) {
+        this.service   = service;
+        this.recursive = recursive;
+        this.reader    = reader;
+        this.lister    = lister;
+    }
+
+    /**
+     * Starts watching a directory, before its entries are recorded. A failure is kept for {@link #getFailures()}.
+     * @param shownPath Path of the directory as shown in its header by the listing.
+     * */
+    void register(final Path dir, final String shownPath) {
+        try {
+            final WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                                              StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            views.put(dir, new TreeMap<>());
+            shownPaths.put(dir, shownPath);
+            directories.put(key, dir);
+        } catch(IOException e) {
+            failures.put(shownPath, e);
+        } catch(UnsupportedOperationException | ClosedWatchServiceException e) {
+            failures.put(shownPath, new IOException(e));
+        }
+    }
+
+    /**
+     * Records an entry of a directory as listed.
+     * */
+    void record(final Path dir, final Entry entry) {
+        final TreeMap<String, Entry> view = views.get(dir);
+        if(view != null)
+            view.put(entry.name, entry);
+    }
+
+    /**
+     * @return Directories which could not be watched, as shown, with the reason.
+     * */
+    Map<String, IOException> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Shows the changes as they come, until no directory is watched anymore.
+     * @throws InterruptedException When interrupted while waiting for changes.
+     * */
+    void run(final OutputRenderer out) throws InterruptedException {
+        failures.clear();
+        while(!directories.isEmpty()) {
+            final WatchKey key = service.take();
+            final Path dir = directories.get(key);
+            if(dir == null) {
+                key.cancel();
+                continue;
+            }
+            /* Entries created by this batch of events, read again already when modified by the same batch */
+            final HashSet<Path> created = new HashSet<>();
+            for(WatchEvent<?> event : key.pollEvents()) {
+                if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescan(dir, out);
+                    continue;
+                }
+                final Path name = (Path)event.context();
+                if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                    created.add(name);
+                else if(event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && created.contains(name))
+                    continue;
+                update(dir, dir.resolve(name), out);
+            }
+            /* A directory removed, or no longer accessible, is not watched anymore */
+            if(!key.reset()) {
+                directories.remove(key);
+                views.remove(dir);
+                shownPaths.remove(dir);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the entry named by an event again, and shows how it changed.
+     * */
+    private void update(final Path dir, final Path file, final OutputRenderer out) {
+        final TreeMap<String, Entry> view = views.get(dir);
+        if(view == null)
+            return;
+        final Entry now = reader.apply(file);
+        change(dir, view, view.get(file.getFileName().toString()), now, out);
+    }
+
+    /**
+     * Reads a directory again as a whole, and shows how its entries changed, in name order.
+     * */
+    private void rescan(final Path dir, final OutputRenderer out) {
+        final TreeMap<String, Entry> view = views.get(dir);
+        final java.util.List<Entry> entries = lister.apply(dir);
+        if(view == null || entries == null)
+            return;
+        final TreeMap<String, Entry> now = byName(entries);
+        final TreeSet<String> names = new TreeSet<>(view.keySet());
+        names.addAll(now.keySet());
+        for(String name : names)
+            change(dir, view, view.get(name), now.get(name), out);
+    }
+
+    private static TreeMap<String, Entry> byName(final java.util.List<Entry> entries) {
+        final TreeMap<String, Entry> byName = new TreeMap<>();
+        for(Entry entry : entries)
+            byName.put(entry.name, entry);
+        return byName;
+    }
+
+    /**
+     * Updates the entry held for a directory and shows the change, if any.
+     * @param before Entry as held, null if none.
+     * @param now Entry as read again, null if it does not exist anymore.
+     * */
+    private void change(final Path dir, final TreeMap<String, Entry> view, final Entry before, final Entry now,
+                        final OutputRenderer out) {
+        if(now == null) {
+            if(before == null)
+                return;
+            view.remove(before.name);
+            show('-', dir, before, out);
+        } else if(before == null) {
+            view.put(now.name, now);
+            show('+', dir, now, out);
+        } else if(now.isModifiedSince(before)) {
+            view.put(now.name, now);
+            show('~', dir, now, out);
+        } else {
+            return;
+        }
+
+        if(!recursive)
+            return;
+        final boolean wasDirectory = (before != null && before.directory), isDirectory = (now != null && now.directory);
+        if(wasDirectory && !isDirectory)
+            unregisterTree(dir.resolve(before.name));
+        else if(!wasDirectory && isDirectory)
+            registerTree(dir.resolve(now.name), toShownPath(dir, now.name), out);
+    }
+
+    /**
+     * @return Path of an entry of a watched directory as shown, same as {@link Path#resolve(String)}.
+     * */
+    private String toShownPath(final Path dir, final String name) {
+        return Paths.get(shownPaths.getOrDefault(dir, dir.toString())).resolve(name).toString();
+    }
+
+    /**
+     * Starts watching a directory added, and its subdirectories; all their entries are shown as added.
+     * */
+    private void registerTree(final Path root, final String shownRoot, final OutputRenderer out) {
+        final ArrayDeque<Path> pending = new ArrayDeque<>();
+        pending.push(root);
+        register(root, shownRoot);
+        while(!pending.isEmpty()) {
+            final Path dir = pending.pop();
+            final java.util.List<Entry> entries = lister.apply(dir);
+            final TreeMap<String, Entry> view = views.get(dir);
+            if(entries == null || view == null)
+                continue;
+            final java.util.List<Entry> subdirectories = new java.util.ArrayList<>();
+            for(Entry entry : byName(entries).values()) {
+                if(!view.containsKey(entry.name)) {
+                    view.put(entry.name, entry);
+                    show('+', dir, entry, out);
+                }
+                if(entry.directory)
+                    subdirectories.add(entry);
+            }
+            /* Walked in name order, registered before their parent is left so that their shown paths are known */
+            for(int i = subdirectories.size() - 1; i >= 0; i--) {
+                final Path subdirectory = dir.resolve(subdirectories.get(i).name);
+                register(subdirectory, toShownPath(dir, subdirectories.get(i).name));
+                pending.push(subdirectory);
+            }
+        }
+    }
+
+    /**
+     * Stops watching a directory removed, and its subdirectories.
+     * */
+    private void unregisterTree(final Path root) {
+        for(Iterator<Map.Entry<WatchKey, Path>> i = directories.entrySet().iterator(); i.hasNext();) {
+            final Map.Entry<WatchKey, Path> watched = i.next();
+            if(watched.getValue().startsWith(root)) {
+                watched.getKey().cancel();
+                views.remove(watched.getValue());
+                shownPaths.remove(watched.getValue());
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Shows the line of an entry with the change sign in place of its first space.
+     * */
+    private void show(final char sign, final Path dir, final Entry entry, final OutputRenderer out) {
+        if(!entry.shown)
+            return;
+        if(!dir.equals(shownDirectory)) {
+            out.newLine().text(shownPaths.getOrDefault(dir, dir.toString())).text(": ").newLine();
+            shownDirectory = dir;
+        }
+        out.character(sign).bytes(entry.line, 1, entry.line.length - 1);
+    }
+
+    /**
+     * Stops watching all directories.
+     * */
+    @Override
+    public void close() throws IOException {
+        directories.clear();
+        views.clear();
+        shownPaths.clear();
+        service.close();
+    }
+}
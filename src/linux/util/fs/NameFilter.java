@@ -0,0 +1,80 @@
+package linux.util.fs;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
+/**
+ * Filters of entries by name, matched without reading any attribute:
+ * <p> - include = only the entries matching one of the patterns are shown (all if none)
+ * <p> - exclude = the entries matching one of the patterns are neither shown nor walked into
+ * <p> - prune = the directories matching one of the patterns are shown, but not walked into
+ * <p> Patterns are those of {@link FileSystem#getPathMatcher(String)}, e.g. <code>glob:*.log</code> or
+ * <code>regex:.*\.log</code>, matched against the file name of each entry.
+ * <p> Thread safe.
+ * */
+final class NameFilter {
+    private final PathMatcher[] includes, excludes, prunes;
+
+    /**
+     * @throws IllegalArgumentException If a pattern is not valid.
+     * */
+    NameFilter(final FileSystem fs, final java.util.List<String> includes, final java.util.List<String> excludes,
+               final java.util.List<String> prunes) throws IllegalArgumentException {
+        this.includes = toMatchers(fs, includes);
+        this.excludes = toMatchers(fs, excludes);
+        this.prunes   = toMatchers(fs, prunes);
+    }
+
+    private static PathMatcher[] toMatchers(final FileSystem fs, final java.util.List<String> patterns) throws IllegalArgumentException {
+        final PathMatcher[] matchers = new PathMatcher[patterns.size()];
+        for(int i = 0; i < matchers.length; i++) {
+            try {
+                matchers[i] = fs.getPathMatcher(patterns.get(i));
+            } catch(UnsupportedOperationException e) {
+                throw new IllegalArgumentException("Invalid pattern syntax: " + patterns.get(i));
+            }
+        }
+        return matchers;
+    }
+
+    /**
+     * @return Whether the filter has no pattern at all.
+     * */
+    boolean isEmpty() {
+        return includes.length == 0 && excludes.length == 0 && prunes.length == 0;
+    }
+
+    /**
+     * @return Whether an entry is to be read at all: neither excluded, nor left out by the includes unless
+     * it may be a directory to walk into.
+     * @param walkInto Whether the subdirectories of the directory of the entry are walked into.
+     * */
+    boolean accepts(final Path entry, final boolean walkInto) {
+        final Path name = entry.getFileName();
+        return !matches(excludes, name) && (walkInto || includes.length == 0 || matches(includes, name));
+    }
+
+    /**
+     * @return Whether an entry is shown, as far as its name goes.
+     * */
+    boolean isShown(final Path entry) {
+        final Path name = entry.getFileName();
+        return !matches(excludes, name) && (includes.length == 0 || matches(includes, name));
+    }
+
+    /**
+     * @return Whether a directory is not walked into.
+     * */
+    boolean isPruned(final Path dir) {
+        return matches(prunes, dir.getFileName());
+    }
+
+    private static boolean matches(final PathMatcher[] matchers, final Path name) {
+        for(PathMatcher matcher : matchers) {
+            if(matcher.matches(name))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,536 @@
+package linux.util.fs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Renders the listing output straight into a reusable byte buffer.
+ * <p> Produces the same bytes as the equivalent <code>String.format(...)</code> conversions printed
+ * through <code>System.out</code>, without any per entry formatter parsing or string concatenation.
+ * Numbers and dates of the text output follow the default locale as the formatter does: its decimal
+ * separator is used, and the few locales with other digits than ASCII ones or another calendar than
+ * the Gregorian one are left to the formatter.
+ * <p> With a sink, the buffer is written to it in large chunks once full; without one, the buffer
+ * grows to hold everything rendered, to be copied to another renderer later.
+ * <p> Not thread safe.
+ * */
+final class OutputRenderer {
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /** Charset of the standard output, same as chosen for <code>System.out</code> */
+    static final Charset STDOUT_CHARSET;
+    static {
+        final String encoding = System.getProperty("sun.stdout.encoding");
+        Charset charset;
+        try {
+            charset = (encoding == null ? Charset.defaultCharset() : Charset.forName(encoding));
+        } catch(IllegalArgumentException e) {
+            charset = Charset.defaultCharset();
+        }
+        STDOUT_CHARSET = charset;
+    }
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(STDOUT_CHARSET);
+    /** Decimal separator of the default locale, same as used by <code>%f</code> */
+    private static final char DECIMAL_SEPARATOR;
+    /** Whether the default locale formats with ASCII digits and separator, and the Gregorian calendar */
+    private static final boolean PLAIN_LOCALE;
+    static {
+        final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        final DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+        DECIMAL_SEPARATOR = symbols.getDecimalSeparator();
+        PLAIN_LOCALE = symbols.getZeroDigit() == '0' && DECIMAL_SEPARATOR < 0x80 
+                        && Calendar.getInstance(locale).getCalendarType().equals("gregory");
+    }
+    private static final long KB = 1L << 10;
+    private static final long MB = 1L << 20;
+    private static final long GB = 1L << 30;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    /** Human readable sizes below this one are rounded exactly as <code>%4.2f</code> does on their double value */
+    private static final long EXACT_ROUNDING_LIMIT = 1L << 40;
+    /* 1900-01-01T00:00:00Z to 2038-01-01T00:00:00Z: time zone offsets of java.util.Calendar always agree with java.time */
+    private static final long CALENDAR_ZONES_FROM  = -2208988800L;
+    private static final long CALENDAR_ZONES_UNTIL =  2145916800L;
+
+    private final OutputStream sink;
+    private final Charset charset;
+    private byte[] buf;
+    private int count = 0;
+
+    /* Date of the last rendered time stamp and the zone offset valid around it */
+    private final ZoneRules zoneRules = ZoneId.systemDefault().getRules();
+    private long offsetValidFrom = Long.MAX_VALUE, offsetValidUntil = Long.MIN_VALUE;
+    private int offsetSeconds;
+    private long cachedEpochDay = Long.MIN_VALUE;
+    private final byte[] cachedDate = new byte[8];
+
+    /**
+     * Renderer writing to the specified sink, in the charset of the standard output.
+     * */
+    OutputRenderer(final OutputStream sink) {
+        this(sink, STDOUT_CHARSET, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Renderer holding everything rendered in memory, in the charset of the standard output.
+     * */
+    OutputRenderer() {
+        this(null, STDOUT_CHARSET, 256);
+    }
+
+    /**
+     * @param sink Where to write the buffer once full, null to grow the buffer instead.
+     * @param charset Charset of the text.
+     * @param capacity Initial buffer capacity, in bytes.
+     * */
+    OutputRenderer(final OutputStream sink, final Charset charset, final int capacity) {
+        this.sink    = sink;
+        this.charset = charset;
+        this.buf     = new byte[capacity];
+    }
+
+    /**
+     * Makes room for the specified number of bytes.
+     * */
+    private void ensureCapacity(final int length) {
+        if(count + length <= buf.length)
+            return;
+        if(sink != null) {
+            flushBuffer();
+            if(length <= buf.length)
+                return;
+        }
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+    }
+
+    private void flushBuffer() {
+        if(count > 0) {
+            try {
+                sink.write(buf, 0, count);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes everything buffered to the sink and flushes it.
+     * */
+    void flush() {
+        if(sink == null)
+            return;
+        flushBuffer();
+        try {
+            sink.flush();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return Number of bytes buffered.
+     * */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Discards everything buffered, keeping the buffer for reuse.
+     * */
+    void reset() {
+        count = 0;
+    }
+
+    /**
+     * Writes everything buffered to the specified stream, without flushing the sink if any.
+     * */
+    void writeTo(final OutputStream stream) throws IOException {
+        stream.write(buf, 0, count);
+    }
+
+    /**
+     * @return Copy of everything buffered.
+     * */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * Appends everything buffered by the other renderer.
+     * */
+    OutputRenderer append(final OutputRenderer other) {
+        return bytes(other.buf, 0, other.count);
+    }
+
+    OutputRenderer bytes(final byte[] bytes, final int offset, final int length) {
+        if(sink != null && length >= buf.length) {
+            /* Too large to be worth buffering */
+            flushBuffer();
+            try {
+                sink.write(bytes, offset, length);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return this;
+        }
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+        return this;
+    }
+
+    OutputRenderer newLine() {
+        return bytes(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+    }
+
+    OutputRenderer spaces(final int n) {
+        if(n > 0) {
+            ensureCapacity(n);
+            Arrays.fill(buf, count, count + n, (byte)' ');
+            count += n;
+        }
+        return this;
+    }
+
+    OutputRenderer character(final char c) {
+        if(c < 0x80) {
+            ensureCapacity(1);
+            buf[count++] = (byte)c;
+            return this;
+        }
+        return text(String.valueOf(c));
+    }
+
+    /**
+     * Same as <code>%s</code>.
+     * */
+    OutputRenderer text(final String s) {
+        final int length = s.length();
+        ensureCapacity(length);
+        int i = 0;
+        /* ASCII fast path, also valid for every ASCII compatible charset */
+        for(; i < length; i++) {
+            final char c = s.charAt(i);
+            if(c >= 0x80)
+                break;
+            buf[count++] = (byte)c;
+        }
+        if(i < length) {
+            final byte[] encoded = s.substring(i).getBytes(charset);
+            bytes(encoded, 0, encoded.length);
+        }
+        return this;
+    }
+
+    /**
+     * Same as <code>%s</code> for the specified characters.
+     * */
+    OutputRenderer text(final char[] chars, final int offset, final int length) {
+        ensureCapacity(length);
+        int i = offset;
+        final int end = offset + length;
+        /* ASCII fast path, also valid for every ASCII compatible charset */
+        for(; i < end; i++) {
+            final char c = chars[i];
+            if(c >= 0x80)
+                break;
+            buf[count++] = (byte)c;
+        }
+        if(i < end) {
+            final byte[] encoded = new String(chars, i, end - i).getBytes(charset);
+            bytes(encoded, 0, encoded.length);
+        }
+        return this;
+    }
+
+    /**
+     * Renders the content of a JSON string: quotes, backslashes and control characters escaped.
+     * */
+    OutputRenderer jsonText(final String s) {
+        final int length = s.length();
+        int start = 0;
+        for(int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if(c < ' ' || c == '"' || c == '\\') {
+                text(s.substring(start, i)).jsonEscape(c);
+                start = i + 1;
+            }
+        }
+        return (start == 0 ? text(s) : text(s.substring(start)));
+    }
+
+    /**
+     * Same as {@link #jsonText(String)} for the specified characters.
+     * */
+    OutputRenderer jsonText(final char[] chars, final int offset, final int length) {
+        final int end = offset + length;
+        int start = offset;
+        for(int i = offset; i < end; i++) {
+            final char c = chars[i];
+            if(c < ' ' || c == '"' || c == '\\') {
+                text(chars, start, i - start).jsonEscape(c);
+                start = i + 1;
+            }
+        }
+        return text(chars, start, end - start);
+    }
+
+    private OutputRenderer jsonEscape(final char c) {
+        ensureCapacity(6);
+        buf[count++] = '\\';
+        if(c == '"' || c == '\\') {
+            buf[count++] = (byte)c;
+        } else {
+            buf[count++] = 'u';
+            buf[count++] = '0';
+            buf[count++] = '0';
+            buf[count++] = (byte)HEX_DIGITS[c >> 4];
+            buf[count++] = (byte)HEX_DIGITS[c & 0xf];
+        }
+        return this;
+    }
+
+    /**
+     * Makes room for the specified number of bytes: as many can then be rendered without the buffer 
+     * being written to the sink, so that their positions stay valid for patching.
+     * */
+    OutputRenderer reserve(final int length) {
+        ensureCapacity(length);
+        return this;
+    }
+
+    /**
+     * @return Position of the next byte rendered in the buffer, valid until the buffer is written to the sink.
+     * */
+    int position() {
+        return count;
+    }
+
+    OutputRenderer int8(final int value) {
+        ensureCapacity(1);
+        buf[count++] = (byte)value;
+        return this;
+    }
+
+    /**
+     * Renders a big-endian 16-bit integer.
+     * */
+    OutputRenderer int16(final int value) {
+        ensureCapacity(2);
+        patchInt16(count, value);
+        count += 2;
+        return this;
+    }
+
+    /**
+     * Renders a big-endian 32-bit integer.
+     * */
+    OutputRenderer int32(final int value) {
+        ensureCapacity(4);
+        patchInt32(count, value);
+        count += 4;
+        return this;
+    }
+
+    /**
+     * Renders a big-endian 64-bit integer.
+     * */
+    OutputRenderer int64(final long value) {
+        ensureCapacity(8);
+        patchInt32(count, (int)(value >>> 32));
+        patchInt32(count + 4, (int)value);
+        count += 8;
+        return this;
+    }
+
+    /**
+     * Overwrites a big-endian 16-bit integer already rendered at the specified position.
+     * */
+    void patchInt16(final int position, final int value) {
+        buf[position]     = (byte)(value >>> 8);
+        buf[position + 1] = (byte)value;
+    }
+
+    /**
+     * Overwrites a big-endian 32-bit integer already rendered at the specified position.
+     * */
+    void patchInt32(final int position, final int value) {
+        buf[position]     = (byte)(value >>> 24);
+        buf[position + 1] = (byte)(value >>> 16);
+        buf[position + 2] = (byte)(value >>> 8);
+        buf[position + 3] = (byte)value;
+    }
+
+    /**
+     * Same as <code>%<i>width</i>s</code>: right justified if the width is positive, left justified otherwise.
+     * */
+    OutputRenderer text(final String s, final int width) {
+        final int padding = Math.abs(width) - s.length();
+        if(width > 0)
+            spaces(padding);
+        text(s);
+        if(width < 0)
+            spaces(padding);
+        return this;
+    }
+
+    /**
+     * Same as <code>%d</code>.
+     * */
+    OutputRenderer decimal(final long value) {
+        return decimal(value, 0);
+    }
+
+    /**
+     * Same as <code>%<i>width</i>d</code>, right justified.
+     * */
+    OutputRenderer decimal(final long value, final int width) {
+        if(value == Long.MIN_VALUE)
+            return text(Long.toString(value), width);
+        final int digits = decimalLength(value);
+        spaces(width - digits);
+        ensureCapacity(digits);
+        long v = Math.abs(value);
+        int pos = count + digits;
+        do {
+            buf[--pos] = (byte)('0' + (v % 10));
+            v /= 10;
+        } while(v != 0);
+        if(value < 0)
+            buf[--pos] = '-';
+        count += digits;
+        return this;
+    }
+
+    /**
+     * Same as <code>%d</code> in the default locale, for the text output: see {@link #decimal(long)} 
+     * for the machine readable formats.
+     * */
+    OutputRenderer localDecimal(final long value) {
+        return (PLAIN_LOCALE ? decimal(value) : text(String.format("%d", value)));
+    }
+
+    /**
+     * @return Number of characters of the value in decimal, including the sign.
+     * */
+    private static int decimalLength(final long value) {
+        long v = Math.abs(value);
+        int digits = 1;
+        while(v >= 10) {
+            v /= 10;
+            digits++;
+        }
+        return (value < 0 ? digits + 1 : digits);
+    }
+
+    /**
+     * Renders a file size right justified in a column of the specified width:
+     * <p> - <code>?</code> if the size is unknown (-1)
+     * <p> - same as <code>%8d</code> if not in human understandable format
+     * <p> - same as <code>%8d B</code>, <code>%4.2f K</code>, <code>%4.2f M</code> or <code>%4.2f G</code>
+     * (in the highest memory unit possible) otherwise
+     * <p> All in the default locale.
+     * */
+    OutputRenderer fileSize(final long size, final boolean human, final int width) {
+        if(size == -1)
+            return text("?", width);
+        if(!PLAIN_LOCALE && (!human || size < KB))
+            return text(String.format((human ? "%8d B" : "%8d"), size), width);
+        if(!human)
+            return decimal(size, width);
+        if(size < KB) {
+            spaces(width - (Math.max(8, decimalLength(size)) + 2));
+            return decimal(size, 8).text(" B");
+        }
+        final long unit = (size < MB ? KB : (size < GB ? MB : GB));
+        final char unitSymbol = (size < MB ? 'K' : (size < GB ? 'M' : 'G'));
+        if(size >= EXACT_ROUNDING_LIMIT || !PLAIN_LOCALE)
+            return text(String.format("%4.2f %c", (double)size / unit, unitSymbol), width);
+
+        /* Hundredths of the unit, rounded half up */
+        final long scaled = size * 100;
+        long hundredths = scaled / unit;
+        if((scaled % unit) * 2 >= unit)
+            hundredths++;
+        final long whole = hundredths / 100;
+        final int fraction = (int)(hundredths % 100);
+        spaces(width - (decimalLength(whole) + 5));
+        decimal(whole);
+        ensureCapacity(5);
+        buf[count++] = (byte)DECIMAL_SEPARATOR;
+        buf[count++] = (byte)('0' + fraction / 10);
+        buf[count++] = (byte)('0' + fraction % 10);
+        buf[count++] = ' ';
+        buf[count++] = (byte)unitSymbol;
+        return this;
+    }
+
+    /**
+     * Renders a time stamp right justified in a column of the specified width, same as
+     * <code>%tT-%&lt;tD</code> (i.e. <code>HH:mm:ss-MM/dd/yy</code>) in the default time zone and locale.
+     * @param millis Milliseconds since the epoch.
+     * */
+    OutputRenderer dateTime(final long millis, final int width) {
+        final long epochSecond = Math.floorDiv(millis, 1000L);
+        if(epochSecond < CALENDAR_ZONES_FROM || epochSecond >= CALENDAR_ZONES_UNTIL || !PLAIN_LOCALE) {
+            /* Left to the formatter: Julian calendar, local mean times, rules past the time zone data of Calendar, locale digits and calendars */
+            return text(String.format("%tT-%<tD", millis), width);
+        }
+        if(epochSecond < offsetValidFrom || epochSecond >= offsetValidUntil)
+            updateZoneOffset(epochSecond);
+        final long localSecond = epochSecond + offsetSeconds;
+        final long epochDay = Math.floorDiv(localSecond, 86400L);
+        if(epochDay != cachedEpochDay) {
+            final LocalDate date = LocalDate.ofEpochDay(epochDay);
+            cachedEpochDay = epochDay;
+            putTwoDigits(cachedDate, 0, date.getMonthValue());
+            cachedDate[2] = '/';
+            putTwoDigits(cachedDate, 3, date.getDayOfMonth());
+            cachedDate[5] = '/';
+            putTwoDigits(cachedDate, 6, date.getYear() % 100);
+        }
+        final int secondOfDay = (int)Math.floorMod(localSecond, 86400L);
+
+        spaces(width - 17);
+        ensureCapacity(17);
+        putTwoDigits(buf, count, secondOfDay / 3600);
+        buf[count + 2] = ':';
+        putTwoDigits(buf, count + 3, (secondOfDay / 60) % 60);
+        buf[count + 5] = ':';
+        putTwoDigits(buf, count + 6, secondOfDay % 60);
+        buf[count + 8] = '-';
+        System.arraycopy(cachedDate, 0, buf, count + 9, 8);
+        count += 17;
+        return this;
+    }
+
+    /**
+     * Finds the zone offset at the specified instant, and the period around it during which it stays the same.
+     * */
+    private void updateZoneOffset(final long epochSecond) {
+        final Instant instant = Instant.ofEpochSecond(epochSecond);
+        offsetSeconds = zoneRules.getOffset(instant).getTotalSeconds();
+        final ZoneOffsetTransition previous = zoneRules.previousTransition(instant.plusSeconds(1));
+        final ZoneOffsetTransition next = zoneRules.nextTransition(instant);
+        offsetValidFrom  = (previous == null ? Long.MIN_VALUE : previous.toEpochSecond());
+        offsetValidUntil = (next == null ? Long.MAX_VALUE : next.toEpochSecond());
+        cachedEpochDay = Long.MIN_VALUE;
+    }
+
+    private static void putTwoDigits(final byte[] bytes, final int offset, final int value) {
+        bytes[offset]     = (byte)('0' + value / 10);
+        bytes[offset + 1] = (byte)('0' + value % 10);
+    }
+}
@@ -0,0 +1,40 @@
+package linux.util.fs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of user names by numeric user id (uid), least recently used names evicted first.
+ * <p> A directory usually has only a handful of distinct owners, so each of them is looked up once
+ * through the platform name service instead of once per entry.
+ * <p> Thread safe.
+ * */
+final class OwnerCache {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final LinkedHashMap<Integer, String> names;
+
+    /**
+     * @param capacity Maximum number of names held.
+     * */
+    OwnerCache(final int capacity) {
+        this.names = new LinkedHashMap<Integer, String>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return Name of the user, null if not cached.
+     * */
+    synchronized String get(final int uid) {
+        return names.get(uid);
+    }
+
+    synchronized void put(final int uid, final String name) {
+        names.put(uid, name);
+    }
+}
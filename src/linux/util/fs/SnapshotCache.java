@@ -0,0 +1,331 @@
+package linux.util.fs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Persistent on-disk index of directory listings, so that unchanged directories need not be read again.
+ * <p> Each directory is indexed by its path, with its file key and modification time. Its snapshot
+ * (the raw attributes of all its entries, hidden ones included) is reused as long as both are the
+ * same; a directory whose entries are added, removed or renamed gets a new modification time and
+ * is read again. Changes to the attributes of an entry alone do not change the modification time
+ * of its directory, and are not seen until it is read again.
+ * <p> Snapshots are held encoded in memory, the same as on disk. Thread safe.
+ * */
+final class SnapshotCache {
+    private static final int MAGIC = 0x4c53_4331; /* LSC1 */
+
+    /* Kind flags of a record */
+    static final int KIND_PRESENT   = 0x80;
+    static final int KIND_REGULAR   = 0x01;
+    static final int KIND_DIRECTORY = 0x02;
+    static final int KIND_SYMLINK   = 0x04;
+    static final int KIND_OTHER     = 0x08;
+
+    /**
+     * What a snapshot of a directory is valid for.
+     * */
+    static final class Key {
+        final String path, fileKey;
+        final long mtimeSecond;
+        final int mtimeNano;
+
+        Key(final String path, final String fileKey, final long mtimeSecond, final int mtimeNano) {
+            this.path        = path;
+            this.fileKey     = fileKey;
+            this.mtimeSecond = mtimeSecond;
+            this.mtimeNano   = mtimeNano;
+        }
+
+        boolean matches(final Key that) {
+            return this.fileKey.equals(that.fileKey) && this.mtimeSecond == that.mtimeSecond && this.mtimeNano == that.mtimeNano;
+        }
+    }
+
+    /**
+     * Raw attributes of a file as held in a snapshot.
+     * */
+    static final class Attributes {
+        /** {@link #KIND_PRESENT} with the kind flags, 0 if the attributes could not be read */
+        int kind;
+        int mode, uid, gid;
+        long size, mtimeSecond;
+        int mtimeNano;
+
+        /**
+         * @return Whether both hold the same attributes.
+         * */
+        boolean sameAs(final Attributes that) {
+            if(this.kind != that.kind)
+                return false;
+            return this.kind == 0
+                   || (this.mode == that.mode && this.uid == that.uid && this.gid == that.gid && this.size == that.size
+                       && this.mtimeSecond == that.mtimeSecond && this.mtimeNano == that.mtimeNano);
+        }
+    }
+
+    private final Path file;
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private volatile boolean modified = false;
+
+    private static final class Snapshot {
+        final Key key;
+        final byte[] entries;
+
+        Snapshot(final Key key, final byte[] entries) {
+            this.key     = key;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * @param file Index file.
+     * */
+    SnapshotCache(final Path file) {
+        this.file = file;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Loads the index file, if it exists. Every snapshot is decoded once, so that a corrupted index is 
+     * rejected as a whole rather than showing wrong listings.
+     * @throws IOException If the index file cannot be read or is not valid, nothing is loaded then and 
+     * the index is rebuilt by this run.
+     * */
+    void load() throws IOException {
+        snapshots.clear();
+        try {
+            final long size = Files.size(file);
+            final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), OutputRenderer.DEFAULT_CAPACITY));
+            try(DataInputStream in = new DataInputStream(counter)) {
+                if(in.readInt() != MAGIC)
+                    throw new IOException("Not a listing cache: " + file);
+                final int count = in.readInt();
+                if(count < 0)
+                    throw new IOException("Invalid listing cache: " + file);
+                for(int i = 0; i < count; i++) {
+                    final Key key = new Key(in.readUTF(), in.readUTF(), in.readLong(), in.readInt());
+                    final int length = in.readInt();
+                    /* Checked before allocating, as the length may be anything in a corrupted file */
+                    if(length < 0 || length > size - counter.count)
+                        throw new IOException("Invalid listing cache: " + file);
+                    final byte[] entries = new byte[length];
+                    in.readFully(entries);
+                    final Reader reader = new Reader(entries);
+                    while(reader.next()) {
+                        /* Decoded to be checked only */
+                    }
+                    snapshots.put(key.path, new Snapshot(key, entries));
+                }
+            }
+        } catch(NoSuchFileException e) {
+            /* Nothing cached yet */
+        } catch(IOException e) {
+            snapshots.clear();
+            modified = true;
+            throw e;
+        }
+        modified = false;
+    }
+
+    /**
+     * Forgets all snapshots, so that the index is rebuilt by this run.
+     * */
+    void clear() {
+        snapshots.clear();
+        modified = true;
+    }
+
+    /**
+     * Writes the index file, if modified since loaded. Replaced atomically where supported.
+     * */
+    void save() throws IOException {
+        if(!modified)
+            return;
+        final Path parent = file.toAbsolutePath().getParent();
+        final Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), OutputRenderer.DEFAULT_CAPACITY))) {
+                final Snapshot[] all = snapshots.values().toArray(new Snapshot[0]);
+                out.writeInt(MAGIC);
+                out.writeInt(all.length);
+                for(Snapshot snapshot : all) {
+                    out.writeUTF(snapshot.key.path);
+                    out.writeUTF(snapshot.key.fileKey);
+                    out.writeLong(snapshot.key.mtimeSecond);
+                    out.writeInt(snapshot.key.mtimeNano);
+                    out.writeInt(snapshot.entries.length);
+                    out.write(snapshot.entries);
+                }
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(java.nio.file.AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            modified = false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return Reader of the snapshot of the directory if still valid for the key, null otherwise (counted as a miss).
+     * */
+    Reader lookup(final Key key) {
+        final Snapshot snapshot = snapshots.get(key.path);
+        if(snapshot == null || !snapshot.key.matches(key)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new Reader(snapshot.entries);
+    }
+
+    /**
+     * Stores the snapshot of a directory, replacing the previous one.
+     * */
+    void store(final Key key, final Writer writer) {
+        snapshots.put(key.path, new Snapshot(key, writer.bytes.toByteArray()));
+        modified = true;
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Encodes the entries of a directory: the name, the attributes of the entry itself and, for a
+     * symbolic link, the attributes of its target.
+     * */
+    static final class Writer {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        void write(final String name, final Attributes attrs, final Attributes target) {
+            try {
+                out.writeUTF(name);
+                writeAttributes(attrs);
+                if((attrs.kind & KIND_SYMLINK) != 0)
+                    writeAttributes(target);
+            } catch(IOException e) {
+                throw new AssertionError("Should not get here: In memory stream failed", e);
+            }
+        }
+
+        private void writeAttributes(final Attributes attrs) throws IOException {
+            out.writeByte(attrs.kind);
+            if(attrs.kind == 0)
+                return;
+            out.writeInt(attrs.mode);
+            out.writeInt(attrs.uid);
+            out.writeInt(attrs.gid);
+            out.writeLong(attrs.size);
+            out.writeLong(attrs.mtimeSecond);
+            out.writeInt(attrs.mtimeNano);
+        }
+    }
+
+    /**
+     * Input stream counting the bytes read through it, so that lengths read can be checked against what is left.
+     * */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count = 0L;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if(b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if(n > 0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    /**
+     * Decodes the entries of a directory one at a time, into reused objects.
+     * */
+    static final class Reader {
+        private final DataInputStream in;
+        String name;
+        final Attributes attrs = new Attributes(), target = new Attributes();
+
+        private Reader(final byte[] entries) {
+            this.in = new DataInputStream(new ByteArrayInputStream(entries));
+        }
+
+        /**
+         * @return false if there is no more entry.
+         * @throws IOException If the entry is not valid: truncated, with a malformed name or unknown kind flags.
+         * */
+        boolean next() throws IOException {
+            if(in.available() == 0)
+                return false;
+            try {
+                name = in.readUTF();
+                readAttributes(attrs);
+                if((attrs.kind & KIND_SYMLINK) != 0)
+                    readAttributes(target);
+                else
+                    target.kind = 0;
+                return true;
+            } catch(EOFException e) {
+                throw new IOException("Truncated snapshot entry", e);
+            }
+        }
+
+        private void readAttributes(final Attributes attrs) throws IOException {
+            attrs.kind = in.readUnsignedByte();
+            if(attrs.kind == 0)
+                return;
+            if((attrs.kind & ~(KIND_REGULAR | KIND_DIRECTORY | KIND_SYMLINK | KIND_OTHER)) != KIND_PRESENT)
+                throw new IOException("Invalid snapshot entry kind: " + attrs.kind);
+            attrs.mode        = in.readInt();
+            attrs.uid         = in.readInt();
+            attrs.gid         = in.readInt();
+            attrs.size        = in.readLong();
+            attrs.mtimeSecond = in.readLong();
+            attrs.mtimeNano   = in.readInt();
+        }
+    }
+}
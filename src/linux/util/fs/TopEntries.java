@@ -0,0 +1,92 @@
+package linux.util.fs;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Bounded selection of the first entries in the order of a comparator, as the entries stream in.
+ * <p> Only the best entries offered so far are held, in a heap whose head is the worst of them: selecting
+ * the first n of m entries takes O(m log n) time and O(n) memory, instead of sorting all of them.
+ * <p> Stable: of entries comparing equal, those offered first come first, same as a stable sort.
+ * <p> Not thread safe.
+ * */
+final class TopEntries<T> {
+    /**
+     * Entry held, with the order in which it was offered.
+     * */
+    private static final class Candidate<T> {
+        final T entry;
+        final long sequence;
+
+        Candidate(final T entry, final long sequence) {
+            this.entry    = entry;
+            this.sequence = sequence;
+        }
+    }
+
+    private final int limit;
+    private final Comparator<? super T> comparator;
+    /** Order of the entries held, ties broken on the order they were offered */
+    private final Comparator<Candidate<T>> order;
+    /** Entries held, worst first */
+    private final PriorityQueue<Candidate<T>> heap;
+    private long sequence = 0L;
+
+    /**
+     * @param limit Maximum number of entries held.
+     * @param comparator Order of the entries, best first.
+     * @throws IllegalArgumentException If the limit is not positive.
+     * */
+    TopEntries(final int limit, final Comparator<? super T> comparator) throws IllegalArgumentException {
+        if(limit < 1)
+            throw new IllegalArgumentException("Invalid number of entries: " + limit);
+        this.limit      = limit;
+        this.comparator = comparator;
+        this.order      = (c1, c2) -> {
+            final int c = comparator.compare(c1.entry, c2.entry);
+            return (c != 0 ? c : Long.compare(c1.sequence, c2.sequence));
+        };
+        /* Grown as needed, so that a large limit costs nothing for small directories */
+        this.heap = new PriorityQueue<>(Math.min(limit, 256), order.reversed());
+    }
+
+    /**
+     * Holds the entry if among the best ones offered so far, dropping the worst one held if needed.
+     * */
+    void offer(final T entry) {
+        if(heap.size() < limit) {
+            heap.add(new Candidate<>(entry, sequence++));
+        } else if(comparator.compare(entry, heap.peek().entry) < 0) {
+            /* Better than the worst one held, an equal one having been offered first */
+            heap.poll();
+            heap.add(new Candidate<>(entry, sequence++));
+        } else {
+            sequence++;
+        }
+    }
+
+    /**
+     * Offers the entries held by another selection, in their order.
+     * */
+    void offerAll(final TopEntries<? extends T> other) {
+        for(T entry : other.toList())
+            offer(entry);
+    }
+
+    int size() {
+        return heap.size();
+    }
+
+    /**
+     * @return Entries held, best first.
+     * */
+    java.util.List<T> toList() {
+        final ArrayList<Candidate<T>> candidates = new ArrayList<>(heap);
+        candidates.sort(order);
+        final ArrayList<T> entries = new ArrayList<>(candidates.size());
+        for(Candidate<T> candidate : candidates)
+            entries.add(candidate.entry);
+        return entries;
+    }
+}
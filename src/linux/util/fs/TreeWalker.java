@@ -0,0 +1,351 @@
+package linux.util.fs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Recursive traversal engine for directory trees.
+ * <p> Each directory is read once by the lister, which renders its block of output and reports its
+ * subdirectories. With a parallelism level above 1 the subdirectories are listed concurrently on a
+ * pool, while the blocks are still handed to the visitor in the order of a serial depth-first walk
+ * (pre-order, children in directory stream order), same as
+ * {@link java.nio.file.Files#walkFileTree(Path, java.nio.file.FileVisitor)}.
+ * <p> Blocks listed ahead of the visitor are held in memory until visited: no further directory is
+ * started while they hold more than {@link #MAX_BUFFERED_BYTES} of output, the visitor listing the
+ * directory it needs next on its own if not started yet. Memory then stays bounded whatever the size of the tree.
+ * <p> Subdirectories below a maximum depth are neither listed nor visited; the lister is told so for the
+ * directories at that depth, which then need no subdirectories reported.
+ * */
+final class TreeWalker {
+    /**
+     * Output of listing one directory.
+     * */
+    static final class Block {
+        final Path dir;
+        /** Error raised when opening the directory, the block has no entries if set */
+        final IOException openError;
+        /** Error raised while reading the directory entries, the content is partial if set */
+        final IOException readError;
+        /** Rendered content of the block, null if already written to the output */
+        final OutputRenderer content;
+        /** Subdirectories to walk into, in directory stream order */
+        final java.util.List<Path> subdirectories;
+
+        /** First entries selected from the directory, of any type, null if none */
+        TopEntries<?> top;
+        /** Entries whose attributes could not be read, so that they could not be walked into; null if none */
+        java.util.List<EntryError> entryErrors;
+
+        /* Listing tasks of the subdirectories when walking in parallel */
+        private DirectoryTask[] subdirectoryTasks;
+
+        Block(final Path dir, final IOException openError, final IOException readError,
+              final OutputRenderer content, final java.util.List<Path> subdirectories) {
+            this.dir            = dir;
+            this.openError      = openError;
+            this.readError      = readError;
+            this.content        = content;
+            this.subdirectories = subdirectories;
+        }
+    }
+
+    /**
+     * Entry of a directory which could not be walked into, as its attributes could not be read.
+     * */
+    static final class EntryError {
+        final Path file;
+        final IOException error;
+        /** Number of subdirectories of the directory found before the entry, i.e. visited before it is reported */
+        final int position;
+
+        EntryError(final Path file, final IOException error, final int position) {
+            this.file     = file;
+            this.error    = error;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Lists a directory into a block, must be thread safe if the parallelism level is above 1.
+     * */
+    interface Lister {
+        /**
+         * @param walkInto Whether the subdirectories are walked into: if not, the block needs none.
+         * */
+        Block list(Path dir, boolean walkInto);
+    }
+
+    /**
+     * Receives the listed blocks in serial walk order, always on the thread which called {@link #walk(Path)}.
+     * */
+    interface Visitor {
+        /** Called for each directory which could be opened, before its subdirectories */
+        void preVisitDirectory(Block block);
+        /** Called for each directory which could not be opened */
+        void visitDirectoryFailed(Path dir, IOException e);
+        /** Called for each entry whose attributes could not be read, in the order it was found among the subdirectories */
+        void visitFileFailed(Path file, IOException e);
+        /** Called for each directory which could be opened, after its subdirectories */
+        void postVisitDirectory(Path dir, IOException readError);
+    }
+
+    /** Bytes of output held by the blocks listed ahead of the visitor, above which no further directory is started */
+    static final long MAX_BUFFERED_BYTES = 4L * 1024 * 1024;
+
+    private final int parallelism;
+    private final int maxDepth;
+    private final Lister lister;
+    private final Visitor visitor;
+
+    /* State of a parallel walk, guarded by this walker */
+    private ForkJoinPool pool;
+    /** Listing tasks not started yet, the next in walk order first as far as known */
+    private final ArrayDeque<DirectoryTask> pending = new ArrayDeque<>();
+    /** Number of listing tasks run by the pool */
+    private int running = 0;
+    /** Bytes of output held by the blocks listed but not visited yet */
+    private long bufferedBytes = 0L;
+    private boolean closed = false;
+
+    /**
+     * @param parallelism Number of directories listed concurrently, 1 to list serially.
+     * @param maxDepth Number of levels of subdirectories walked below the root, -1 for no limit.
+     * @param lister Lists a directory into a block.
+     * @param visitor Receives the blocks.
+     * */
+    TreeWalker(final int parallelism, final int maxDepth, final Lister lister, final Visitor visitor) {
+        if(parallelism < 1)
+            throw new IllegalArgumentException("Invalid parallelism level: " + parallelism);
+        this.parallelism = parallelism;
+        this.maxDepth    = maxDepth;
+        this.lister      = lister;
+        this.visitor     = visitor;
+    }
+
+    /**
+     * @return Whether the subdirectories of a directory at the specified depth are walked into.
+     * */
+    private boolean walksInto(final int depth) {
+        return maxDepth < 0 || depth < maxDepth;
+    }
+
+    /**
+     * Walks the directory tree rooted at the specified directory.
+     * */
+    void walk(final Path root) {
+        if(parallelism == 1) {
+            visit(lister.list(root, walksInto(0)), null);
+            return;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        synchronized(this) {
+            this.pool = pool;
+        }
+        try {
+            visit(join(new DirectoryTask(root, 0)), pool);
+        } finally {
+            synchronized(this) {
+                closed = true;
+                pending.clear();
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Visits the tree below the root block iteratively in pre-order, so that deep trees do not exhaust the stack.
+     * @param pool Pool running the listing tasks, null if listing serially.
+     * */
+    private void visit(final Block root, final ForkJoinPool pool) {
+        final Deque<Frame> frames = new ArrayDeque<>();
+        Frame frame = preVisit(root, 0, pool);
+        if(frame == null)
+            return;
+        frames.push(frame);
+
+        while(!frames.isEmpty()) {
+            frame = frames.peek();
+            if(frame.next < frame.children.length) {
+                visitEntryErrors(frame, frame.next);
+                final Object child = frame.children[frame.next];
+                frame.children[frame.next++] = null; /* Not retained any longer than needed */
+                final int depth = frame.depth + 1;
+                final Block block = (pool == null)
+                                        ? lister.list((Path)child, walksInto(depth))
+                                        : join((DirectoryTask)child);
+                final Frame childFrame = preVisit(block, depth, pool);
+                if(childFrame != null)
+                    frames.push(childFrame);
+            } else {
+                visitEntryErrors(frame, Integer.MAX_VALUE);
+                frames.pop();
+                visitor.postVisitDirectory(frame.dir, frame.readError);
+            }
+        }
+    }
+
+    /**
+     * Reports the entry errors of the directory found before its subdirectory at the specified position.
+     * */
+    private void visitEntryErrors(final Frame frame, final int position) {
+        final java.util.List<EntryError> errors = frame.entryErrors;
+        while(errors != null && frame.nextError < errors.size() && errors.get(frame.nextError).position <= position) {
+            final EntryError error = errors.get(frame.nextError++);
+            visitor.visitFileFailed(error.file, error.error);
+        }
+    }
+
+    /**
+     * @return Frame holding the pending subdirectories of the directory, null if it could not be opened.
+     * */
+    private Frame preVisit(final Block block, final int depth, final ForkJoinPool pool) {
+        if(block.openError != null) {
+            visitor.visitDirectoryFailed(block.dir, block.openError);
+            return null;
+        }
+        visitor.preVisitDirectory(block);
+        final Object[] children;
+        if(!walksInto(depth))
+            children = new Object[0];
+        else
+            children = (pool == null ? block.subdirectories.toArray() : block.subdirectoryTasks);
+        return new Frame(block.dir, block.readError, block.entryErrors, depth, children);
+    }
+
+    /**
+     * A directory being visited, with its subdirectories (paths or listing tasks) still to be visited.
+     * */
+    private static final class Frame {
+        final Path dir;
+        final IOException readError;
+        final java.util.List<EntryError> entryErrors;
+        /** Depth below the root */
+        final int depth;
+        final Object[] children;
+        int next = 0, nextError = 0;
+
+        Frame(final Path dir, final IOException readError, final java.util.List<EntryError> entryErrors, 
+              final int depth, final Object[] children) {
+            this.dir         = dir;
+            this.readError   = readError;
+            this.entryErrors = entryErrors;
+            this.depth       = depth;
+            this.children    = children;
+        }
+    }
+
+    /**
+     * Starts pending listing tasks while the pool has idle workers and the blocks listed ahead of the
+     * visitor hold less output than allowed. Called with the lock of this walker held.
+     * */
+    private void schedule() {
+        while(!closed && running < parallelism && bufferedBytes < MAX_BUFFERED_BYTES && !pending.isEmpty()) {
+            final DirectoryTask task = pending.pollFirst();
+            if(task.started)
+                continue;
+            task.started = true;
+            running++;
+            pool.execute(task);
+        }
+    }
+
+    /**
+     * Lists the directory of a task, and queues the listing of its subdirectories.
+     * @param pooled Whether run by the pool, rather than by the visitor.
+     * */
+    private void list(final DirectoryTask task, final boolean pooled) {
+        final boolean walkInto = walksInto(task.depth);
+        Block block = null;
+        Throwable failure = null;
+        try {
+            block = lister.list(task.dir, walkInto);
+        } catch(RuntimeException | Error e) {
+            failure = e;
+        }
+        synchronized(this) {
+            if(block != null) {
+                final int count = (walkInto ? block.subdirectories.size() : 0);
+                final DirectoryTask[] tasks = new DirectoryTask[count];
+                /* Queued first, last to first, as they are needed right after this directory */
+                for(int i = count - 1; i >= 0; i--) {
+                    tasks[i] = new DirectoryTask(block.subdirectories.get(i), task.depth + 1);
+                    pending.addFirst(tasks[i]);
+                }
+                block.subdirectoryTasks = tasks;
+                task.bufferedBytes = (block.content == null ? 0 : block.content.size());
+                bufferedBytes += task.bufferedBytes;
+            }
+            task.block   = block;
+            task.failure = failure;
+            if(pooled)
+                running--;
+            schedule();
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return Block of a task, listed by the visitor itself if not started yet.
+     * */
+    private Block join(final DirectoryTask task) {
+        final boolean listNow;
+        synchronized(this) {
+            listNow = !task.started;
+            task.started = true;
+        }
+        if(listNow)
+            list(task, false);
+        boolean interrupted = false;
+        try {
+            synchronized(this) {
+                while(task.block == null && task.failure == null) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        /* Listing tasks are not interruptible: waited for anyway */
+                        interrupted = true;
+                    }
+                }
+                if(task.failure instanceof RuntimeException)
+                    throw (RuntimeException)task.failure;
+                if(task.failure != null)
+                    throw (Error)task.failure;
+                bufferedBytes -= task.bufferedBytes;
+                schedule();
+                return task.block;
+            }
+        } finally {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Listing of a directory when walking in parallel, run by the pool or by the visitor.
+     * */
+    private final class DirectoryTask implements Runnable {
+        private final Path dir;
+        private final int depth;
+        /* Guarded by the walker */
+        /** Whether the listing was started, by the pool or by the visitor */
+        private boolean started = false;
+        private Block block;
+        private Throwable failure;
+        /** Bytes of output held by the block until visited */
+        private int bufferedBytes;
+
+        DirectoryTask(final Path dir, final int depth) {
+            this.dir   = dir;
+            this.depth = depth;
+        }
+
+        @Override
+        public void run() {
+            list(this, true);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package tester;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * Resident process serving listings to clients over a Unix domain socket, so that a listing costs
+ * neither the start of a JVM nor the loading of classes; caches such as owner names stay warm across
+ * listings.
+ * <p> Protocol, all integers big-endian, strings as their length in bytes (int32) and their UTF-8 bytes:
+ * <p> - request = {@link #MAGIC} (int32), working directory of the client (string), number of arguments
+ * (int32) and arguments (strings), same as the command line arguments
+ * <p> - response = frames of output, each a kind (int8: {@link #STDOUT} or {@link #STDERR}), a length
+ * (int32) and as many bytes; then the exit code (int8 {@link #EXIT}, int32 code of {@link StandardExitCodes})
+ * <p> Relative paths are resolved against the working directory of the client, and shown as given.
+ * <p> Only the user running the daemon may connect: the socket is readable and writable by its owner
+ * only, and clients of any other user (the super user included) are disconnected unanswered.
+ * */
+final class Daemon {
+    /* Protocol constants, inlined into the client */
+    static final int MAGIC = 0x4c534431; /* LSD1 */
+    static final int EXIT = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+
+    /** Number of listings served at once, further clients wait */
+    private static final int THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+    private Daemon() {
+    }
+
+    /**
+     * Serves clients until killed.
+     * @return Exit code if the socket cannot be served.
+     * */
+    static int serve(final Path socket) {
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            deleteStaleSocket(socket);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            socket.toFile().deleteOnExit();
+            /* Bound with the umask of the process */
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+            final UserPrincipal owner = Files.getOwner(socket, LinkOption.NOFOLLOW_LINKS);
+            final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+            while(true) {
+                final SocketChannel client = server.accept();
+                pool.execute(() -> serveClient(client, owner));
+            }
+        } catch(IOException e) {
+            System.err.printf("Error: Cannot serve on socket: %s (%s) %n", socket, e.getClass().getSimpleName());
+            return StandardExitCodes.FILE;
+        }
+    }
+
+    /**
+     * Deletes the socket file left by a daemon which was not stopped cleanly; any other file is left as is.
+     * */
+    private static void deleteStaleSocket(final Path socket) throws IOException {
+        if(Files.notExists(socket, LinkOption.NOFOLLOW_LINKS))
+            return;
+        if(Files.readAttributes(socket, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther())
+            Files.delete(socket);
+    }
+
+    /**
+     * Runs the command of one client, the output sent back as it is written.
+     * @param owner User running the daemon, the only one served.
+     * */
+    private static void serveClient(final SocketChannel client, final UserPrincipal owner) {
+        try(SocketChannel channel = client) {
+            /* Checked as well, as clients may connect before the permissions are set */
+            if(!channel.getOption(ExtendedSocketOptions.SO_PEERCRED).user().equals(owner))
+                return;
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if(in.readInt() != MAGIC)
+                return;
+            final Path workingDirectory = Paths.get(readString(in));
+            final String[] args = new String[in.readInt()];
+            for(int i = 0; i < args.length; i++)
+                args[i] = readString(in);
+
+            final DataOutputStream sink = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            final PrintStream stderr = new PrintStream(new FrameOutputStream(sink, STDERR), true);
+            final int exitCode = new Main(new FrameOutputStream(sink, STDOUT), stderr, workingDirectory, true).run(args);
+            stderr.flush();
+            synchronized(sink) {
+                sink.writeByte(EXIT);
+                sink.writeInt(exitCode);
+                sink.flush();
+            }
+        } catch(IOException | RuntimeException e) {
+            /* Client gone or not speaking the protocol: nobody to report to */
+        }
+    }
+
+    /**
+     * @return String sent as its length in bytes (int32) and its UTF-8 bytes.
+     * */
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if(length < 0)
+            throw new IOException("Invalid string length: " + length);
+        /* Read as it comes rather than allocated at once, as the length may be anything */
+        final byte[] bytes = in.readNBytes(length);
+        if(bytes.length != length)
+            throw new EOFException();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes everything written to it as frames of one kind, each sent at once.
+     * <p> Thread safe: frames of several streams sharing the sink are not interleaved.
+     * */
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream sink;
+        private final int kind;
+
+        FrameOutputStream(final DataOutputStream sink, final int kind) {
+            this.sink = sink;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if(len == 0)
+                return;
+            synchronized(sink) {
+                sink.writeByte(kind);
+                sink.writeInt(len);
+                sink.write(b, off, len);
+                sink.flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized(sink) {
+                sink.flush();
+            }
+        }
+    }
+}
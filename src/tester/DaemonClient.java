@@ -0,0 +1,77 @@
+package tester;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Thin client of the daemon: forwards its arguments, writes the output sent back as it comes and
+ * exits with the exit code of the listing.
+ * <p> Loads none of the listing classes, so that it starts as fast as a JVM can.
+ * <p> Usage: DaemonClient socket [ls options and files]
+ * */
+public final class DaemonClient {
+    private DaemonClient() {
+    }
+
+    public static void main(final String[] args) {
+        if(args.length < 1) {
+            System.err.println("Usage: DaemonClient <socket> [-<option1> [-<option2>...]] [file-path1 [file-path2 ...]]");
+            System.exit( StandardExitCodes.ERROR );
+        }
+        try(SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]))) {
+            final DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeInt(Daemon.MAGIC);
+            writeString(request, System.getProperty("user.dir"));
+            request.writeInt(args.length - 1);
+            for(int i = 1; i < args.length; i++)
+                writeString(request, args[i]);
+            request.flush();
+
+            final DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+            final byte[] buffer = new byte[64 * 1024];
+            while(true) {
+                final int kind = response.readUnsignedByte();
+                if(kind == Daemon.EXIT) {
+                    final int exitCode = response.readInt();
+                    System.out.flush();
+                    System.exit( exitCode );
+                }
+                final PrintStream target = (kind == Daemon.STDERR ? System.err : System.out);
+                for(int remaining = response.readInt(); remaining > 0; ) {
+                    final int length = Math.min(remaining, buffer.length);
+                    response.readFully(buffer, 0, length);
+                    target.write(buffer, 0, length);
+                    remaining -= length;
+                }
+                if(kind == Daemon.STDERR)
+                    System.out.flush();
+            }
+        } catch(EOFException e) {
+            System.out.flush();
+            System.err.printf("Error: Connection closed by daemon: %s %n", args[0]);
+            System.exit( StandardExitCodes.FATAL );
+        } catch(IOException e) {
+            System.out.flush();
+            System.err.printf("Error: Cannot reach daemon: %s (%s) %n", args[0], e.getClass().getSimpleName());
+            System.exit( StandardExitCodes.FILE );
+        }
+    }
+
+    /**
+     * Writes a string as its length in bytes (int32) and its UTF-8 bytes, whatever its length.
+     * */
+    private static void writeString(final DataOutputStream out, final String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -2,6 +2,8 @@ package tester;
 
 import linux.util.fs.List;
 
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -9,55 +11,141 @@ import java.util.ArrayList;
 
 
 public class Main {
-    private static boolean displayInLongFormat = false; /* default value set */
-    private static boolean displayInHumanUnderstandableFormat = false; /* default value set */
-    private static boolean displayHiddenFiles = false; /* default value set */
-    private static boolean showRecursively = false; /* default value set */
+    private boolean displayInLongFormat = false; /* default value set */
+    private boolean displayInHumanUnderstandableFormat = false; /* default value set */
+    private boolean displayHiddenFiles = false; /* default value set */
+    private boolean displayNumericIds = false; /* default value set */
+    private boolean displayDirectorySizes = false; /* default value set */
+    private int maxDepth = -1; /* default value set */
+    private int topCount = 0; /* default value set */
+    private final ArrayList<String> includes = new ArrayList<>();
+    private final ArrayList<String> excludes = new ArrayList<>();
+    private final ArrayList<String> prunes = new ArrayList<>();
+    private boolean showRecursively = false; /* default value set */
     /** Values:
      * <p> - n = name = file name
      * <p> - s = size = file size
      * <p> - m = mtime = modification time
      * <p> - t = type = file type
+     * <p> - u = none = not sorted
      */
-    private static char sortBy = 'n';  /* default value set */
-    private static boolean sortInAsc = true; /* default value set */    
-    private final static ArrayList<Path> filesToDisplay = new ArrayList<>();
+    private char sortBy = 'n';  /* default value set */
+    private boolean sortInAsc = true; /* default value set */    
+    private int parallelism = 1; /* default value set */
+    private int sortMemoryLimit = 0; /* default value set */
+    private Path cacheFile = null; /* default value set */
+    private boolean rebuildCache = false; /* default value set */
+    private boolean showCacheStats = false; /* default value set */
+    private boolean watch = false; /* default value set */
+    private String statsFormat = null; /* default value set */
+    private String outputFormat = "text"; /* default value set */
+    private final ArrayList<Path> filesToDisplay = new ArrayList<>();
+    private boolean showHelp = false; /* default value set */
     
+    /** Output of the listing */
+    private final OutputStream stdout;
+    /** Output of the help menu, same as the output of the listing */
+    private final PrintStream out;
+    private final PrintStream err;
+    /** Directory relative paths are resolved against, null for the working directory of the process */
+    private final Path workingDirectory;
+    /** Whether running in the daemon, on behalf of a client */
+    private final boolean resident;
+    
+    /**
+     * @param stdout Output of the listing.
+     * @param err Output of the errors.
+     * @param workingDirectory Directory relative paths are resolved against, null for the working directory of the process.
+     * @param resident Whether running in the daemon, on behalf of a client.
+     * */
+    Main(final OutputStream stdout, final PrintStream err, final Path workingDirectory, final boolean resident) {
+        this.stdout           = stdout;
+        this.out              = (stdout instanceof PrintStream ? (PrintStream)stdout : new PrintStream(stdout, false));
+        this.err              = err;
+        this.workingDirectory = workingDirectory;
+        this.resident         = resident;
+    }
     
     public static void main(final String[] args) {
+        if(args.length > 0 && args[0].equals("--daemon")) {
+            if(args.length != 2) {
+                System.err.printf("Error: Invalid argument: %s %n", "Option --daemon requires a socket file and no other option");
+                System.exit( StandardExitCodes.ERROR );
+            }
+            System.exit( Daemon.serve(Paths.get(args[1])) );
+        }
+        final int exitCode = new Main(System.out, System.err, null, false).run(args);
+        if(exitCode != StandardExitCodes.NORMAL)
+            System.exit( exitCode );
+    }
+    
+    /**
+     * Runs the command with the specified arguments, once.
+     * @return Exit code, see {@link StandardExitCodes}.
+     * */
+    int run(final String[] args) {
         try {
             setOptions(args);
+            if(showHelp) {
+                showHelp();
+                return StandardExitCodes.NORMAL;
+            }
             List ls = new List( sortBy,             sortInAsc, 
                                 displayHiddenFiles, displayInLongFormat, 
                                 displayInHumanUnderstandableFormat,
-                                showRecursively,    filesToDisplay);
+                                showRecursively,    filesToDisplay)
+                                .setParallelism(parallelism)
+                                .setSortMemoryLimit(sortMemoryLimit)
+                                .setNumericIds(displayNumericIds)
+                                .setDirectorySizes(displayDirectorySizes)
+                                .setNameFilters(includes, excludes, prunes)
+                                .setMaxDepth(maxDepth)
+                                .setTop(topCount)
+                                .setSnapshotCache(cacheFile, rebuildCache)
+                                .setOutputStreams(stdout, err)
+                                .setWorkingDirectory(workingDirectory)
+                                .setStats(statsFormat)
+                                .setOutputFormat(outputFormat);
             try {
-                ls.showList();
+                if(watch)
+                    ls.watch();
+                else
+                    ls.showList();
             } catch(Exception e) {
                 throw new Exception(e);
             }
+            if(showCacheStats)
+                err.printf("Cache: %d hits, %d misses %n", ls.getCacheHitCount(), ls.getCacheMissCount());
+            return StandardExitCodes.NORMAL;
         } catch(IllegalArgumentException e) {
-            System.err.printf("Error: Invalid argument: %s %n", e.getMessage());
-            System.exit( StandardExitCodes.ERROR );
+            err.printf("Error: Invalid argument: %s %n", e.getMessage());
+            return StandardExitCodes.ERROR;
         } catch(Throwable t) {
             Throwable errorToDisplay = t;
             Throwable causeError = t.getCause();
             if(causeError != null)
                 errorToDisplay = causeError;
-            System.err.println("Fatal Error: Unknown application error");
-            System.err.println("!Contact developers!");
-            System.err.printf("Error detail: %s (%s) %n", errorToDisplay.getClass().getSimpleName(), errorToDisplay.getMessage());
-            System.err.println("Full error stacktrace:");
-            errorToDisplay.printStackTrace(System.err);
-            System.exit( StandardExitCodes.FATAL );
+            err.println("Fatal Error: Unknown application error");
+            err.println("!Contact developers!");
+            err.printf("Error detail: %s (%s) %n", errorToDisplay.getClass().getSimpleName(), errorToDisplay.getMessage());
+            err.println("Full error stacktrace:");
+            errorToDisplay.printStackTrace(err);
+            return StandardExitCodes.FATAL;
         }
     }
+    
+    /**
+     * @return Path of the argument, resolved against the working directory of the client in the daemon.
+     * */
+    private Path toPath(final String arg) {
+        return (workingDirectory == null ? Paths.get(arg) : workingDirectory.resolve(arg));
+    }
 
     /**
      * @throws IllegalArgumentException For any error in provided argument(s).
      * @throws AssertionError For programming error.
      */
-    private static void setOptions(final String[] args) throws  IllegalArgumentException, AssertionError {
+    private void setOptions(final String[] args) throws  IllegalArgumentException, AssertionError {
         char requireArgumentForOption = 0;
         for(String arg: args) {
 //          System.out.printf("    [arg: %s, requireArgumentForOption=%c (%<d)]\n", arg, (int)requireArgumentForOption); // DEBUG
@@ -81,11 +169,81 @@ public class Main {
                             case "t":
                                 sortBy = 't';
                                 break;
+                            case "none":
+                            case "u":
+                                sortBy = 'u';
+                                break;
                             default:
                                 throw new IllegalArgumentException("Invalid value "+arg+" for option --sort-by / -s");
                         }
                         requireArgumentForOption = 0; /* Reset after each use */
                         break;
+                    case 'P': /* argument for parallelism */
+                        try {
+                            parallelism = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            parallelism = -1;
+                        }
+                        if(parallelism < 0)
+                            throw new IllegalArgumentException("Invalid value "+arg+" for option --parallel / -P");
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'M': /* argument for sortMemoryLimit */
+                        try {
+                            sortMemoryLimit = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            sortMemoryLimit = -1;
+                        }
+                        if(sortMemoryLimit < 0)
+                            throw new IllegalArgumentException("Invalid value "+arg+" for option --sort-memory / -M");
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'D': /* argument for maxDepth */
+                        try {
+                            maxDepth = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            maxDepth = -1;
+                        }
+                        if(maxDepth < 0)
+                            throw new IllegalArgumentException("Invalid value "+arg+" for option --max-depth");
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'T': /* argument for topCount */
+                        try {
+                            topCount = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            topCount = -1;
+                        }
+                        if(topCount < 1)
+                            throw new IllegalArgumentException("Invalid value "+arg+" for option --top");
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'i': /* argument for includes */
+                        includes.add("glob:" + arg);
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'I': /* argument for includes */
+                        includes.add("regex:" + arg);
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'x': /* argument for excludes */
+                        excludes.add("glob:" + arg);
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'X': /* argument for excludes */
+                        excludes.add("regex:" + arg);
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'p': /* argument for prunes */
+                        prunes.add("glob:" + arg);
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
+                    case 'C': /* argument for cacheFile */
+                        cacheFile = toPath(arg);
+                        if(Files.isDirectory(cacheFile))
+                            throw new IllegalArgumentException("Invalid value "+arg+" for option --cache, is a directory");
+                        requireArgumentForOption = 0; /* Reset after each use */
+                        break;
                     default:
                         throw new AssertionError("Should not get here: requireArgumentForOption = " + requireArgumentForOption);
                 }
@@ -93,7 +251,8 @@ public class Main {
                 switch(arg) {
                     case "--help":
                     case "-h":
-                        showHelpAndExit();
+                        showHelp = true;
+                        return; /* Nothing else is parsed */
                     case "--human":
                     case "-u":
                         displayInHumanUnderstandableFormat = true;
@@ -106,6 +265,34 @@ public class Main {
                     case "-a":
                         displayHiddenFiles = true;
                         break;
+                    case "--numeric-ids":
+                    case "-n":
+                        displayNumericIds = true;
+                        break;
+                    case "--top":
+                        requireArgumentForOption = 'T';
+                        break;
+                    case "--max-depth":
+                        requireArgumentForOption = 'D';
+                        break;
+                    case "--include":
+                        requireArgumentForOption = 'i';
+                        break;
+                    case "--include-regex":
+                        requireArgumentForOption = 'I';
+                        break;
+                    case "--exclude":
+                        requireArgumentForOption = 'x';
+                        break;
+                    case "--exclude-regex":
+                        requireArgumentForOption = 'X';
+                        break;
+                    case "--prune":
+                        requireArgumentForOption = 'p';
+                        break;
+                    case "--dir-sizes":
+                        displayDirectorySizes = true;
+                        break;
                     case "--recursive":
                     case "-R":
                         showRecursively = true;
@@ -118,13 +305,49 @@ public class Main {
                     case "-r":
                         sortInAsc = false;
                         break;
+                    case "--unsorted":
+                    case "-U":
+                        sortBy = 'u';
+                        break;
+                    case "--parallel":
+                    case "-P":
+                        requireArgumentForOption = 'P';
+                        break;
+                    case "--sort-memory":
+                    case "-M":
+                        requireArgumentForOption = 'M';
+                        break;
+                    case "--watch":
+                    case "-w":
+                        watch = true;
+                        break;
+                    case "--cache":
+                        requireArgumentForOption = 'C';
+                        break;
+                    case "--stats":
+                        statsFormat = "text";
+                        break;
+                    case "--cache-rebuild":
+                        rebuildCache = true;
+                        break;
+                    case "--cache-stats":
+                        showCacheStats = true;
+                        break;
                     default:
+                        if(arg.startsWith("--stats=")) {
+                            statsFormat = arg.substring("--stats=".length());
+                            break;
+                        }
+                        if(arg.startsWith("--format=")) {
+                            outputFormat = arg.substring("--format=".length());
+                            break;
+                        }
                         if(arg.startsWith("-"))
                             throw new IllegalArgumentException(arg);
-                        Path path = Paths.get(arg);
-                        if(Files.notExists(path))
+                        if(Files.notExists(toPath(arg)))
                             throw new IllegalArgumentException("File cannot be located: " + arg);
-                        filesToDisplay.add(path);
+                        /* Resolved by the listing, so that it is shown as given */
+                        filesToDisplay.add(Paths.get(arg));
                 }
             }
         }
@@ -133,36 +356,93 @@ public class Main {
             throw new IllegalArgumentException("Argument not specified for provided option " + requireArgumentForOption);
         }
 
+        if((rebuildCache || showCacheStats) && cacheFile == null) {
+            throw new IllegalArgumentException("Option --cache not specified for option " + (rebuildCache ? "--cache-rebuild" : "--cache-stats"));
+        }
+
+        if(watch && !outputFormat.equals("text")) {
+            throw new IllegalArgumentException("Option --watch cannot be used with format " + outputFormat);
+        }
+
+        if(watch && (maxDepth >= 0 || !includes.isEmpty() || !excludes.isEmpty() || !prunes.isEmpty())) {
+            throw new IllegalArgumentException("Option --watch cannot be used with options --max-depth, --include, --exclude or --prune");
+        }
+
+        if(watch && resident) {
+            throw new IllegalArgumentException("Option --watch cannot be used through the daemon");
+        }
+
+        if(watch && topCount > 0) {
+            throw new IllegalArgumentException("Option --watch cannot be used with option --top");
+        }
+
+        if(watch && displayDirectorySizes) {
+            throw new IllegalArgumentException("Option --watch cannot be used with option --dir-sizes");
+        }
+
         if(filesToDisplay.isEmpty()) {
-            filesToDisplay.add(Paths.get( System.getProperty("user.dir") )); /* default value set */
+            filesToDisplay.add(workingDirectory != null ? workingDirectory : Paths.get( System.getProperty("user.dir") )); /* default value set */
         }
     }
     
-    private static void showHelpAndExit() {
-        System.out.println("Purpose:   Lists directory contents");
-        System.out.println("Usage:     ls [-<option1> [-<option2>...]] [file-path1 [file-path2 ...]]");
-        System.out.printf ("Version:   %.2f %n", List.APP_VERSION);
-        System.out.println("Options:");
-        System.out.println("    --help,        -h          Display this help menu and exit");
-        System.out.println("    --human,       -u          Display in human understandable format");
-        System.out.println("    --long,        -l          Show list in long format in the following order: ");
-        System.out.println("        file permissions");
-        System.out.println("        file owner");
-        System.out.println("        file type");
-        System.out.println("        file size");
-        System.out.println("        file modification date and time");
-        System.out.println("        file name");
-        System.out.println("    --show-hidden, -a          Don't ignore hidden files");
-        System.out.println("    --recursive,   -R          Show directory contents recursively");
-        System.out.println("    --reverse,     -r          Show list in descending order on the specified sorting attribute column [Default order: Ascending]");
-        System.out.println("    --sort-by,     -s <value>  Sorts by the specified attribute column [Default column: file name]");
-        System.out.println("        Valid values:");
-        System.out.println("            n, name    On file name");
-        System.out.println("            s, size    On file size");
-        System.out.println("            m, mtime   On file modification date and time");
-        System.out.println("            t, type    On file type");
-        StandardExitCodes.showMessage();
-        
-        System.exit( StandardExitCodes.NORMAL );
+    private void showHelp() {
+        out.println("Purpose:   Lists directory contents");
+        out.println("Usage:     ls [-<option1> [-<option2>...]] [file-path1 [file-path2 ...]]");
+        out.printf ("Version:   %.2f %n", List.APP_VERSION);
+        out.println("Options:");
+        out.println("    --help,        -h          Display this help menu and exit");
+        out.println("    --human,       -u          Display in human understandable format");
+        out.println("    --long,        -l          Show list in long format in the following order: ");
+        out.println("        file permissions");
+        out.println("        file owner");
+        out.println("        file type");
+        out.println("        file size");
+        out.println("        file modification date and time");
+        out.println("        file name");
+        out.println("    --show-hidden, -a          Don't ignore hidden files");
+        out.println("    --numeric-ids, -n          Show file owners as numeric user ids, without looking their names up");
+        out.println("    --recursive,   -R          Show directory contents recursively");
+        out.println("    --top <value>              Show only the first entries in the sort order, of each directory or of the whole tree when showing recursively (e.g. -s s -r --top 20 for the 20 largest)");
+        out.println("    --max-depth <value>        Number of levels of subdirectories shown below each directory when showing recursively [Default: no limit]");
+        out.println("    --include <glob>           Show only the entries whose name matches the pattern, e.g. '*.log' (repeatable)");
+        out.println("    --include-regex <regex>    Show only the entries whose name matches the regular expression (repeatable)");
+        out.println("    --exclude <glob>           Neither show nor walk into the entries whose name matches the pattern (repeatable)");
+        out.println("    --exclude-regex <regex>    Neither show nor walk into the entries whose name matches the regular expression (repeatable)");
+        out.println("    --prune <glob>             Do not walk into the directories whose name matches the pattern, still shown (repeatable)");
+        out.println("    --dir-sizes                Show and sort directories by their recursive size (of all the files below them), and each listed directory with its recursive size and number of files");
+        out.println("    --reverse,     -r          Show list in descending order on the specified sorting attribute column [Default order: Ascending]");
+        out.println("    --unsorted,    -U          Do not sort, show entries in directory order as soon as read (same as --sort-by none)");
+        out.println("    --sort-by,     -s <value>  Sorts by the specified attribute column [Default column: file name]");
+        out.println("        Valid values:");
+        out.println("            n, name    On file name");
+        out.println("            s, size    On file size");
+        out.println("            m, mtime   On file modification date and time");
+        out.println("            t, type    On file type");
+        out.println("            u, none    Not sorted, in directory order");
+        out.println("    --parallel,    -P <value>  Number of directories listed concurrently when showing recursively, and walked concurrently for --dir-sizes [Default: 1]");
+        out.println("        Valid values:");
+        out.println("            0          Number of available processors");
+        out.println("            1, 2, ...  Exact number of directories");
+        out.println("    --sort-memory, -M <value>  Number of entries of a directory sorted in memory, larger directories are sorted using temporary files [Default: 0]");
+        out.println("        Valid values:");
+        out.println("            0          No limit, always sorted in memory");
+        out.println("            1, 2, ...  Exact number of entries");
+        out.println("    --watch,       -w          After the listing, keep showing the entries added (+), removed (-) or modified (~) in name order, until interrupted");
+        out.println("    --stats[=<value>]          Show statistics of the listing on the standard error: time of each phase, entries per second, directories, attribute calls, peak entries held");
+        out.println("        Valid values:");
+        out.println("            text       As text (default)");
+        out.println("            json       As one JSON object");
+        out.println("    --format=<value>           Format of the output [Default: text]");
+        out.println("        Valid values:");
+        out.println("            text       Lines as shown by ls");
+        out.println("            ndjson     One JSON object per entry and line: path, type, size, mtime (epoch milliseconds), permissions, owner");
+        out.println("            binary     One length-prefixed record per entry with the same fields, integers big-endian");
+        out.println("    --cache <file>             Reuse the listings of directories not modified since the previous run, as indexed in the file");
+        out.println("    --cache-rebuild            Ignore the listings indexed in the cache file and rebuild it");
+        out.println("    --cache-stats              Show the number of directories listed from the cache (hits) and read (misses)");
+        out.println("    --daemon <socket>          Serve listings to clients over the Unix domain socket file, until killed; must be the only option");
+        out.println("        Client:    java -cp ls.jar tester.DaemonClient <socket> [-<option1> [-<option2>...]] [file-path1 [file-path2 ...]]");
+        StandardExitCodes.showMessage(out);
+        out.flush();
     }
 }
@@ -1,5 +1,6 @@
 package tester;
 
+import java.io.PrintStream;
 
 public final class StandardExitCodes {
     /* Exit Values Constants */
@@ -9,10 +10,14 @@ public final class StandardExitCodes {
     public static final int FATAL  = 10;
     
     public final static void showMessage() {
-        System.out.println("Exit values: ");
-        System.out.printf("  %2d    %s\n", NORMAL, "Normal exit");
-        System.out.printf("  %2d    %s\n", ERROR,  "General user errors");
-        System.out.printf("  %2d    %s\n", FILE,   "File/Directory related errors");
-        System.out.printf("  %2d    %s\n", FATAL,  "Application fatal/unknown error");
+        showMessage(System.out);
+    }
+    
+    public final static void showMessage(final PrintStream out) {
+        out.println("Exit values: ");
+        out.printf("  %2d    %s\n", NORMAL, "Normal exit");
+        out.printf("  %2d    %s\n", ERROR,  "General user errors");
+        out.printf("  %2d    %s\n", FILE,   "File/Directory related errors");
+        out.printf("  %2d    %s\n", FATAL,  "Application fatal/unknown error");
     }
 }